@@ -1,5 +1,9 @@
 package models;
 
+import java.util.Arrays;
+
+import searchclient.Command;
+
 /**
  * @author KaZ
  * This class is used to keep track of positions of the boxes and agents.
@@ -12,6 +16,20 @@ public class Perception {
 	public int[][] boxIds;
 	public int[][] agents;
 	
+	/**
+	 * Cell (row * cols + col) of every box indexed by its ID, -1 for unused IDs; kept up to date with boxIds.
+	 */
+	private int[] boxCells;
+	
+	/**
+	 * Journal of the changes made by update, so that copies of the level can catch up with only the changes made since
+	 * they last looked (see Node.updatePerception). Entry i moved the object journalObjects[i] (box ID if positive,
+	 * otherwise -1 - agent number) to the cell journalCells[i] (row * cols + col). The version is the number of entries.
+	 */
+	private int[] journalObjects = new int[64];
+	private int[] journalCells = new int[64];
+	private int version = 0;
+	
 	public Perception(int rows, int cols, int agentCount, char[][] boxes, int[][] boxIds, int[][] agents) {
 		this.rows = rows;
 		this.cols = cols;
@@ -20,136 +38,107 @@ public class Perception {
 		this.boxIds = new int[rows][cols];
 		this.agents = new int[agentCount][2];
 		
+		int maxBoxId = 0;
 		for (int row = 0; row < rows; row++) {
 			System.arraycopy(boxes[row], 0, this.boxes[row], 0, cols);
 			System.arraycopy(boxIds[row], 0, this.boxIds[row], 0, cols);
+			for (int col = 0; col < cols; col++) {
+				maxBoxId = Math.max(maxBoxId, boxIds[row][col]);
+			}
+		}
+		this.boxCells = new int[maxBoxId + 1];
+		Arrays.fill(this.boxCells, -1);
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				if (boxIds[row][col] > 0) {
+					this.boxCells[boxIds[row][col]] = row * cols + col;
+				}
+			}
 		}
 		for (int agent = 0; agent < agentCount; agent++) {
 			System.arraycopy(agents[agent], 0, this.agents[agent], 0, 2);
 		}
 	}
 	
-	public void update(String action, int agentNo) {
-		if(action == "NoOp") {
+	/**
+	 * Applies the command with given ordinal (see Command.byOrdinal) that the server executed for the agent.
+	 */
+	public void update(int ordinal, int agentNo) {
+		Command command = Command.byOrdinal(ordinal);
+		if(command.actionType == Command.Type.NoOp) {
 			return;
 		}
 		
-		String actionType = action.substring(0,4);
-		String agentDir = action.substring(5,6);
+		int agentRow = this.agents[agentNo][0];
+		int agentCol = this.agents[agentNo][1];
+		int newAgentRow = agentRow + Command.dirToRowChange(command.dir1);
+		int newAgentCol = agentCol + Command.dirToColChange(command.dir1);
 		
-		switch(actionType) {
-			case "Move":
-				updateAgentPos(agentDir, agentNo);
+		switch(command.actionType) {
+			case Push:
+				// The box is in the cell the agent moves to
+				moveBox(newAgentRow, newAgentCol, newAgentRow + Command.dirToRowChange(command.dir2), newAgentCol + Command.dirToColChange(command.dir2));
 				break;
-			case "Push":
-				String boxDir = action.substring(7,8);
-				updateBoxPosPush(agentDir, boxDir, agentNo);
-				updateAgentPos(agentDir, agentNo);
+			case Pull:
+				// The box is in direction dir2 of the agent and follows into the cell the agent leaves
+				moveBox(agentRow + Command.dirToRowChange(command.dir2), agentCol + Command.dirToColChange(command.dir2), agentRow, agentCol);
 				break;
-			case "Pull":
-				String curDirBox = action.substring(7,8);
-				updateBoxPosPush(curDirBox, reverse(curDirBox), agentNo);
-				updateAgentPos(agentDir, agentNo);
+			default:
 				break;
 		}
+		
+		this.agents[agentNo][0] = newAgentRow;
+		this.agents[agentNo][1] = newAgentCol;
+		record(-1 - agentNo, newAgentRow * this.cols + newAgentCol);
 	}
 	
-	private void updateAgentPos(String dir, int agentNo) {
-		switch(dir) {
-			case "N":
-				this.agents[agentNo][0] -= 1;
-				break;
-			case "S":
-				this.agents[agentNo][0] += 1;
-				break;
-			case "E":
-				this.agents[agentNo][1] += 1;
-				break;
-			case "W":
-				this.agents[agentNo][1] -= 1;
-				break;
-		}
+	private void moveBox(int row, int col, int newRow, int newCol) {
+		this.boxes[newRow][newCol] = this.boxes[row][col];
+		this.boxes[row][col] = 0;
+		
+		this.boxIds[newRow][newCol] = this.boxIds[row][col];
+		this.boxIds[row][col] = 0;
+		this.boxCells[this.boxIds[newRow][newCol]] = newRow * this.cols + newCol;
+		
+		record(this.boxIds[newRow][newCol], newRow * this.cols + newCol);
 	}
 	
-	private void updateBoxPosPush(String agentDir, String boxDir, int agentNo) {
-		int agentRow = this.agents[agentNo][0];
-		int agentCol = this.agents[agentNo][1];
-		int[] boxPos = calcBoxPos(agentRow, agentCol, agentDir);
-		char boxChar;
-		int boxId;
-		switch(boxDir) {
-			case "N":
-				boxChar = this.boxes[boxPos[0]][boxPos[1]];
-				this.boxes[boxPos[0]][boxPos[1]] = 0;
-				this.boxes[boxPos[0]-1][boxPos[1]] = boxChar;
-				
-				boxId = this.boxIds[boxPos[0]][boxPos[1]];
-				this.boxIds[boxPos[0]][boxPos[1]] = 0;
-				this.boxIds[boxPos[0]-1][boxPos[1]] = boxId;
-				return;
-			case "S":
-				boxChar = this.boxes[boxPos[0]][boxPos[1]];
-				this.boxes[boxPos[0]][boxPos[1]] = 0;
-				this.boxes[boxPos[0]+1][boxPos[1]] = boxChar;
-				
-				boxId = this.boxIds[boxPos[0]][boxPos[1]];
-				this.boxIds[boxPos[0]][boxPos[1]] = 0;
-				this.boxIds[boxPos[0]+1][boxPos[1]] = boxId;
-				return;
-			case "E":
-				boxChar = this.boxes[boxPos[0]][boxPos[1]];
-				this.boxes[boxPos[0]][boxPos[1]] = 0;
-				this.boxes[boxPos[0]][boxPos[1]+1] = boxChar;
-				
-				boxId = this.boxIds[boxPos[0]][boxPos[1]];
-				this.boxIds[boxPos[0]][boxPos[1]] = 0;
-				this.boxIds[boxPos[0]][boxPos[1]+1] = boxId;
-				return;
-			case "W":
-				boxChar = this.boxes[boxPos[0]][boxPos[1]];
-				this.boxes[boxPos[0]][boxPos[1]] = 0;
-				this.boxes[boxPos[0]][boxPos[1]-1] = boxChar;
-				
-				boxId = this.boxIds[boxPos[0]][boxPos[1]];
-				this.boxIds[boxPos[0]][boxPos[1]] = 0;
-				this.boxIds[boxPos[0]][boxPos[1]-1] = boxId;
-				return;
+	private void record(int object, int cell) {
+		if(this.version == this.journalObjects.length) {
+			this.journalObjects = Arrays.copyOf(this.journalObjects, 2 * this.version);
+			this.journalCells = Arrays.copyOf(this.journalCells, 2 * this.version);
 		}
-		System.err.println("Invalid boxDir in updateBoxPosPush");
+		this.journalObjects[this.version] = object;
+		this.journalCells[this.version] = cell;
+		this.version++;
 	}
 	
-	private int[] calcBoxPos(int row, int col, String dir) {
-		int[] newPos = {row, col};
-		switch(dir) {
-			case "N":
-				newPos[0] -= 1;
-				return newPos;
-			case "S":
-				newPos[0] += 1;
-				return newPos;
-			case "E":
-				newPos[1] += 1;
-				return newPos;
-			case "W":
-				newPos[1] -= 1;
-				return newPos;
-		}
-		System.err.println("Invalid direction provided for calcNewPos");
-		return null;
+	/**
+	 * Copy of the cells of all boxes indexed by their IDs (-1 for unused IDs).
+	 */
+	public int[] boxCells() {
+		return this.boxCells.clone();
 	}
 	
-	private String reverse(String dir) {
-		switch(dir) {
-			case "N":
-				return "S";
-			case "S":
-				return "N";
-			case "E":
-				return "W";
-			case "W":
-				return "E";
-		}
-		return "Invalid direction";
+	/**
+	 * Number of changes made so far; grows with every moved box or agent.
+	 */
+	public int version() {
+		return this.version;
+	}
+	
+	/**
+	 * Object moved by given change (see version): the box ID if positive, otherwise -1 - the agent number.
+	 */
+	public int changedObject(int entry) {
+		return this.journalObjects[entry];
+	}
+	
+	/**
+	 * Cell (row * cols + col) the object of given change moved to.
+	 */
+	public int changedCell(int entry) {
+		return this.journalCells[entry];
 	}
 	
 }
@@ -1,92 +1,101 @@
 package searchclient;
 
-import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 
 import searchclient.ElementWithColor.Color;
 
 // Used to calculate the closest distance to a box from a goal.
+// Cells are addressed by a flat index (row * cols + col, see Level). The queue, distances and visited marks live in
+// per-thread scratch arrays that are reused by every search, so a query does not allocate anything besides its result.
 public class BFS {
 	boolean[][] walls;
 	int[][] agents;
-	char[][] levelToSearch; /// box array + ? for everything that is not a box
-	char[][] copyOfLevelToSearch;
+	Node n;
 	HashMap<Character, Color> colorAssignments;
 	
 	int rows;
 	int cols;
 	
-	char boxChar;
-	
-	/**
- 	 * Representation of a final position; The array is expected to have 2 values, [0] to represent rows, [1] to represent cols.
- 	 * Used during computation in mode 3.
- 	 */
- 	int[] destination;
-
-	
-	ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
-	
-	public static enum Direction {
-		left, right, up, down
-	}
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
 	
 	public BFS(Node n){
+		this.n = n;
 		this.walls = n.walls;
 		this.rows = n.rows;
 		this.cols = n.cols;
 		this.agents = n.agents;
 		this.colorAssignments = n.colorAssignments;
-		
-		levelToSearch = new char[rows][cols];
-		copyOfLevelToSearch = new char[rows][cols];
-		
-		for(int row = 0; row < rows; row++){
-			for(int col = 0; col < cols; col++){
-				if(n.boxes[row][col] > 0){
-					levelToSearch[row][col] = n.boxes[row][col];
-//					// System.err.print(levelToSearch[row][col]);
-				}
-				else {
-					levelToSearch[row][col] = '?';
-//					// System.err.print(levelToSearch[row][col]);
-				}
-			}
-//			// System.err.println();
-		}
 	}
 	
 	public int closestBoxFromGoal(int startRow, int startCol, char goalChar){
-		init(startRow, startCol);
-		
-		this.boxChar = java.lang.Character.toUpperCase(goalChar);
-		
-		return performDistanceSearch(-1, null, null, null, 0);
-		
+		char boxChar = java.lang.Character.toUpperCase(goalChar);
+		
+		Scratch s = begin(startRow, startCol);
+		while(s.head < s.tail) {
+			int cell = s.queue[s.head++];
+			int row = cell / cols;
+			int col = cell % cols;
+			if(n.boxLetterAt(row, col) == boxChar){
+				return s.dist[cell];
+			}
+			
+			int dist = s.dist[cell] + 1;
+			expandAll(s, row - 1, col, dist);
+			expandAll(s, row + 1, col, dist);
+			expandAll(s, row, col - 1, dist);
+			expandAll(s, row, col + 1, dist);
+		}
+		return -1;
 	}
 	
 	public int closestMovableBoxFromAgent(int startRow, int startCol, int agent){
-		init(startRow, startCol);
-		
 		Color agentColor = this.colorAssignments.get((char) (agent  + '0'));
 		
-	//	// System.err.println("" + startRow + "," + startCol + "," +agentColor);
-		
-		return performDistanceSearch(-1, agentColor, null, null, 1);
+		Scratch s = begin(startRow, startCol);
+		while(s.head < s.tail) {
+			int cell = s.queue[s.head++];
+			int row = cell / cols;
+			int col = cell % cols;
+			char box = n.boxLetterAt(row, col);
+			if(box != 0 && this.colorAssignments.get(box) == agentColor){
+				return s.dist[cell];
+			}
+			
+			int dist = s.dist[cell] + 1;
+			expandMovable(s, row - 1, col, dist, agentColor);
+			expandMovable(s, row + 1, col, dist, agentColor);
+			expandMovable(s, row, col - 1, dist, agentColor);
+			expandMovable(s, row, col + 1, dist, agentColor);
+		}
+		return -1;
 	}
 	
 	// otherAgentsPlan is a boolean array with the fields that other agents are planning to traverse set to true
 	public int closestSafeCellForBox(boolean[][] otherAgentsPlan, char[][] agents, int boxStartRow, int boxStartCol){		
-		init(boxStartRow, boxStartCol);
-		
-		char boxChar = levelToSearch[boxStartRow][boxStartCol];
-		
-		Color boxColor = this.colorAssignments.get(boxChar);
-		
-		//// System.err.println("" + boxStartRow + "," + boxStartCol);
-		
-		return performDistanceSearch(-1, null, otherAgentsPlan, boxColor, 2);
+		Color boxColor = this.colorAssignments.get(n.boxLetterAt(boxStartRow, boxStartCol));
+		
+		Scratch s = begin(boxStartRow, boxStartCol);
+		while(s.head < s.tail) {
+			int cell = s.queue[s.head++];
+			int row = cell / cols;
+			int col = cell % cols;
+			if(!otherAgentsPlan[row][col]){
+				return s.dist[cell];
+			}
+			
+			int dist = s.dist[cell] + 1;
+			expandCritical(s, row - 1, col, dist, otherAgentsPlan, boxColor);
+			expandCritical(s, row + 1, col, dist, otherAgentsPlan, boxColor);
+			expandCritical(s, row, col - 1, dist, otherAgentsPlan, boxColor);
+			expandCritical(s, row, col + 1, dist, otherAgentsPlan, boxColor);
+		}
+		return -1;
 	}
 	
 	/**
@@ -98,11 +107,24 @@ public class BFS {
  	 * @return
  	 */
 	public int distance(int x1, int y1, int x2, int y2) {
- 		init(x1, y1);
+		int destination = x2 * cols + y2;
 		
- 		destination = new int[] { x2, y2 };
- 		
- 		return performDistanceSearch(-1, null, null, null, 3);
+		Scratch s = begin(x1, y1);
+		while(s.head < s.tail) {
+			int cell = s.queue[s.head++];
+			if(cell == destination){
+				return s.dist[cell];
+			}
+			
+			int row = cell / cols;
+			int col = cell % cols;
+			int dist = s.dist[cell] + 1;
+			expandAll(s, row - 1, col, dist);
+			expandAll(s, row + 1, col, dist);
+			expandAll(s, row, col - 1, dist);
+			expandAll(s, row, col + 1, dist);
+		}
+		return -1;
  	}
 	
 	/**
@@ -115,9 +137,7 @@ public class BFS {
 	 * @return
 	 */
  	public int hasClearPath(int x1, int y1, int x2, int y2) {
- 		init(x1, y1);
- 		
- 		destination = new int[] { x2, y2 };
+ 		int destination = x2 * cols + y2;
  		
  		int agent = -1;
 		for(int agentNo = 0; agentNo < agents.length; agentNo++) {
@@ -126,274 +146,246 @@ public class BFS {
 				break;
 			}
 		}
- 		
- 		return performDistanceSearch(agent, null, null, null, 4);
+		
+		Scratch s = begin(x1, y1);
+		while(s.head < s.tail) {
+			int cell = s.queue[s.head++];
+			if(cell == destination){
+				return s.dist[cell];
+			}
+			
+			int row = cell / cols;
+			int col = cell % cols;
+			int dist = s.dist[cell] + 1;
+			expandClear(s, row - 1, col, dist, agent, destination);
+			expandClear(s, row + 1, col, dist, agent, destination);
+			expandClear(s, row, col - 1, dist, agent, destination);
+			expandClear(s, row, col + 1, dist, agent, destination);
+		}
+		return -1;
  	}
 	
-	public int[] searchForFreeCell2(int agent, Node n, HashMap<Integer, LinkedList<Node>> agentPlans) {
+	/**
+	 * Finds a shortest path for the agent to any of the given cells, walking around boxes and other agents.
+	 * @param targets Flat indices of the cells to reach.
+	 * @return Cells entered by the agent along the path (not including its current cell), or null if there is no path.
+	 */
+	public int[] agentPath(int agent, int[] targets) {
+		Scratch s = begin(agents[agent][0], agents[agent][1]);
+		while(s.head < s.tail) {
+			int cell = s.queue[s.head++];
+			for(int target : targets) {
+				if(cell == target) {
+					int[] path = new int[s.dist[cell]];
+					for(int step = path.length - 1; step >= 0; step--) {
+						path[step] = cell;
+						cell = s.from[cell];
+					}
+					return path;
+				}
+			}
+			
+			int row = cell / cols;
+			int col = cell % cols;
+			int dist = s.dist[cell] + 1;
+			expandPath(s, row - 1, col, dist, agent, cell);
+			expandPath(s, row + 1, col, dist, agent, cell);
+			expandPath(s, row, col - 1, dist, agent, cell);
+			expandPath(s, row, col + 1, dist, agent, cell);
+		}
+		return null;
+	}
+	
+	/**
+	 * Like agentPath, but also keeps off the cells reserved by other agents; the agent may wait in its cell. Searches
+	 * (cell, time) pairs up to the horizon of the reservations, after which time does not matter anymore.
+	 * @return Cells of the agent after every step, or null if there is no path.
+	 */
+	public int[] agentPath(int agent, int[] targets, ReservationTable reservations) {
+		int cells = rows * cols;
+		int horizon = reservations.horizon();
+		// State (cell, time) is encoded as time * cells + cell; times past the horizon are all stored as horizon + 1
+		int[] from = new int[(horizon + 2) * cells];
+		boolean[] visited = new boolean[from.length];
+		int[] queue = new int[from.length];
+		int head = 0;
+		int tail = 0;
+		
+		int start = agents[agent][0] * cols + agents[agent][1];
+		visited[start] = true;
+		queue[tail++] = start;
+		while(head < tail) {
+			int state = queue[head++];
+			int cell = state % cells;
+			int time = state / cells;
+			for(int target : targets) {
+				if(cell == target && reservations.isFreeFrom(cell, time)) {
+					// Number of steps is not the time once the horizon has been passed, so count them on the way back
+					int steps = 0;
+					for(int s = state; s != start; s = from[s]) {
+						steps++;
+					}
+					int[] path = new int[steps];
+					for(int step = steps - 1; step >= 0; step--) {
+						path[step] = state % cells;
+						state = from[state];
+					}
+					return path;
+				}
+			}
+			
+			int next = Math.min(time + 1, horizon + 1);
+			int[] neighbours = { cell, cell - cols, cell + cols, cell - 1, cell + 1 };
+			for(int i = 0; i < neighbours.length; i++) {
+				int c = neighbours[i];
+				int nextState = next * cells + c;
+				if(visited[nextState] || walls[c / cols][c % cols] || !reservations.isFree(c, next)) {
+					continue;
+				}
+				if(i > 0 && (n.boxAt(c / cols, c % cols) || otherAgentAtPos(agent, c / cols, c % cols))) {
+					continue;
+				}
+				visited[nextState] = true;
+				from[nextState] = state;
+				queue[tail++] = nextState;
+			}
+		}
+		return null;
+	}
+	
+	public int[] searchForFreeCell2(int agent, Node n, HashMap<Integer, Plan> agentPlans) {
 	//	// System.err.printf("searchForFreeCell: agent (%d), confAgent (%d)\n", agent, conflictingAgent);
 		
-		init(agents[agent][0], agents[agent][1]);
-		
 		// boolean[][] traversalArray = TraversalArray.generateTraversalArray2(n, agentPlans);
 		
 		boolean[][] traversalArray = TraversalArray.generateTraversalArray(n, agent, agentPlans, -1);
 		
-		return performCellSearch(agent, colorAssignments.get((char) (agent + '0')), traversalArray, null, 0);
+		return searchFreeCell(agents[agent][0], agents[agent][1], agent, traversalArray);
 	}
 	
-	public int[] searchForFreeCell(int agentRequiringHelp, int conflictingAgent, Node n, HashMap<Integer, LinkedList<Node>> agentPlans) {
+	public int[] searchForFreeCell(int agentRequiringHelp, int conflictingAgent, Node n, HashMap<Integer, Plan> agentPlans) {
 		//	// System.err.printf("searchForFreeCell: agent (%d), confAgent (%d)\n", agent, conflictingAgent);
 			int[] result ;
 		
-			init(agents[conflictingAgent][0], agents[conflictingAgent][1]);
-
 			boolean[][] traversalArray = TraversalArray.generateTraversalArray(n, agentRequiringHelp, agentPlans, conflictingAgent);
 			
-			result = performCellSearch(conflictingAgent, colorAssignments.get((char) (conflictingAgent + '0')), traversalArray, null, 0);
+			result = searchFreeCell(agents[conflictingAgent][0], agents[conflictingAgent][1], conflictingAgent, traversalArray);
 			
 			if(result==null){
 				System.err.println("not null");
 				traversalArray = TraversalArray.generateTraversalArray(n, agentRequiringHelp, agentPlans, -1);
-				result = performCellSearch(conflictingAgent, colorAssignments.get((char) (conflictingAgent + '0')), traversalArray, null, 0);
+				result = searchFreeCell(agents[conflictingAgent][0], agents[conflictingAgent][1], conflictingAgent, traversalArray);
 			}
 			
 			return  result ;}
 	
-	public int[] searchForTempCell(int[] boxPos, int agentRequiringHelp, int conflictingAgent, Node n, HashMap<Integer, LinkedList<Node>> agentPlans) {
-		init(boxPos[0], boxPos[1]); // create a copy of level to search
+	public int[] searchForTempCell(int[] boxPos, int agentRequiringHelp, int conflictingAgent, Node n, HashMap<Integer, Plan> agentPlans) {
 //		// System.err.println("Parameters sent for traversalArray: " + n + "," + agentRequiringHelp + "," + agentPlans);
 		boolean[][] traversalArray = TraversalArray.generateTraversalArray(n, agentRequiringHelp, agentPlans, -1);
 		 /// example of condition to enqueue if true, condition to stop if false
 //		traversalArray[boxPos[0]][boxPos[1]] = true;
 		
-		return performCellSearch(conflictingAgent, colorAssignments.get((char) (conflictingAgent + '0')), traversalArray, colorAssignments.get(levelToSearch[boxPos[0]][boxPos[1]]), 1);
+		return searchFreeCell(boxPos[0], boxPos[1], conflictingAgent, traversalArray);
 	}
 	
 	
-	public int[] searchNoneDeadLockedCell(int[] boxPos, int agentRequiringHelp, int conflictingAgent, Node n, HashMap<Integer, LinkedList<Node>> agentPlans) {
-		init(boxPos[0], boxPos[1]); // create a copy of level to search
-
+	public int[] searchNoneDeadLockedCell(int[] boxPos, int agentRequiringHelp, int conflictingAgent, Node n, HashMap<Integer, Plan> agentPlans) {
 		boolean[][] traversalArray = TraversalArray.generateTraversalArray2(n,  agentPlans);
 		
 		
-		return performCellSearch(conflictingAgent, colorAssignments.get((char) (conflictingAgent + '0')), traversalArray, colorAssignments.get(levelToSearch[boxPos[0]][boxPos[1]]), 1);
-	}
-	
-	public void init(int row, int col){
-		resetCopyOfLevel(); // copu leveltoSearch to copyofleveltosearch
-		copyOfLevelToSearch[row][col] = '!';	// Mark current cell as searched
-		queue.add(createPosDistArray(row, col, 0));
-	}
-	
-	public int performDistanceSearch(int agent, Color agentColor, boolean[][] otherAgentsPlan, Color boxColor, int mode){		
-		while(!queue.isEmpty()) {
-			int result = exploreDistanceNew(agent, agentColor, otherAgentsPlan, boxColor, mode);
-			if(result >= 0){
-				queue.clear();
-				return result;
-			}
-		}
-		
-		return -1;
+		return searchFreeCell(boxPos[0], boxPos[1], conflictingAgent, traversalArray);
 	}
 	
-	public int[] performCellSearch(int agent, Color agentColor, boolean[][] otherAgentsPlan, Color boxColor, int mode){
-		// // System.err.println("performCellSearch: agent - " + agent + ", agentColor - " + agentColor + ", boxColor - " + boxColor);
-		while(!queue.isEmpty()) { /// we have enquued the first one in the init
-			int[] result = exploreCellNew(agent, agentColor, otherAgentsPlan, boxColor, mode);
-			if(result != null){
-				queue.clear();
-				
-				return result;
+	/**
+	 * Finds the closest cell that is not set in traversalArray, moving only through cells without boxes and agents
+	 * (other than the given agent). Returns [row, col, distance] or null if there is no such cell.
+	 */
+	private int[] searchFreeCell(int startRow, int startCol, int agent, boolean[][] traversalArray) {
+		Scratch s = begin(startRow, startCol);
+		while(s.head < s.tail) { /// we have enqueued the first one in begin
+			int cell = s.queue[s.head++];
+			int row = cell / cols;
+			int col = cell % cols;
+			if(!traversalArray[row][col]){
+				return new int[] { row, col, s.dist[cell] }; /// goal condition
 			}
+			
+			int dist = s.dist[cell] + 1;
+			expandFree(s, row - 1, col, dist, agent);
+			expandFree(s, row + 1, col, dist, agent);
+			expandFree(s, row, col - 1, dist, agent);
+			expandFree(s, row, col + 1, dist, agent);
 		}
 		return null;
 	}
 	
-	private int[] createPosDistArray(int row, int col, int dist){ // keep track of distance, row, col
-		int[] posDistArray = new int[3];
-		
-		posDistArray[0] = row;
-		posDistArray[1] = col;
-		posDistArray[2] = dist;
-		
-		return posDistArray;
+	/**
+	 * Starts a new search from given cell on the scratch arrays of the current thread.
+	 */
+	private Scratch begin(int row, int col) {
+		Scratch s = SCRATCH.get();
+		s.begin(rows * cols);
+		s.mark(row * cols + col);	// Mark current cell as searched
+		s.enqueue(row * cols + col, 0);
+		return s;
 	}
 	
-	public int exploreDistanceNew(int agent, Color agentColor, boolean[][] otherAgentsPlan, Color boxColor, int mode) {
-		int[] curPosDist = queue.remove();
-		
-		int row = curPosDist[0];
-		int col = curPosDist[1];
-		int dist = curPosDist[2];
-		
-		switch(mode) {
-			case 0:
-				if(copyOfLevelToSearch[row][col] == this.boxChar){
-					return dist;
-				}
-				break;
-				
-			case 1:
-				if(copyOfLevelToSearch[row][col] != '?' &&
-				   this.colorAssignments.get(copyOfLevelToSearch[row][col]) == agentColor){
-					return dist;
-				}
-				break;
-				
-			case 2:
-				if(!otherAgentsPlan[row][col]){
-					return dist;
-				}
-				break;
-			case 3:
-			case 4:
-				// Mode for generalized problem of searching path between two locations
-				if (destination[0] == row && destination[1] == col) {
-//					// System.err.println("Return dist:" + dist);
-					return dist;
-				}
-				break;
-		}
-		
-		dist += 1;
-		
-		for(Direction dir : Direction.values()){
-			exploreDistanceNewAux(agent, row, col, dist, agentColor, otherAgentsPlan, boxColor, dir, mode);
+	// The expand* methods below contain the conditions to continue the BFS for the different searches. A neighbour
+	// cell is marked as considered even if it is not enqueued, so every cell is looked at once per search.
+	
+	private void expandAll(Scratch s, int row, int col, int dist) {
+		int cell = row * cols + col;
+		if(!walls[row][col] && s.mark(cell)){
+			s.enqueue(cell, dist);
 		}
-		
-		return -1;
 	}
 	
-	
-	public int[] exploreCellNew(int agent, Color agentColor, boolean[][] traversalarray, Color boxColor, int mode) {
-		int[] curPosDist = queue.remove();
-		
-		int row = curPosDist[0];
-		int col = curPosDist[1];
-		int dist = curPosDist[2];
-		
-		switch(mode) {
-			case 0:
-			case 1:
-				if(traversalarray[row][col] == false){ 
-					return curPosDist; /// goal condition
-				}
-				break;
+	private void expandMovable(Scratch s, int row, int col, int dist, Color agentColor) {
+		int cell = row * cols + col;
+		if(!walls[row][col] && s.mark(cell)){
+			char box = n.boxLetterAt(row, col);
+			// Check that a box of a different color than the agent is not in the cell
+			if(box == 0 || this.colorAssignments.get(box) == agentColor){
+				s.enqueue(cell, dist);
+			}
 		}
-		
-		dist += 1;
-		
-	
+	}
 	
-		
-		for(Direction dir : Direction.values()){ /// for each direction we enqueue
-			exploreCellNewAux(agent, row, col, dist, agentColor, traversalarray, boxColor, dir, mode);
+	private void expandCritical(Scratch s, int row, int col, int dist, boolean[][] otherAgentsPlan, Color boxColor) {
+		int cell = row * cols + col;
+		if(!walls[row][col] && s.mark(cell)){
+			// Checks whether the cell is in a critical section. PROBLEM: Never adds the free cell!!!
+			if(otherAgentsPlan[row][col] && !differentColoredAgentInCell(row, col, boxColor)){
+				s.enqueue(cell, dist);
+			}
 		}
-		
-		return null;
 	}
 	
-	/**
-	 * This method contains conditions to continue the BFS and has several modes for the different cases.
-	 * The current row, and column
-	 * @param agent TODO
-	 * @param row
-	 * @param col
-	 * @param dist
-	 * @param agentColor
-	 * @param otherAgentsPlan
-	 * @param boxColor
-	 * @param dir
-	 * @param mode
-	 */
-	public void exploreDistanceNewAux(int agent, int row, int col, int dist, Color agentColor, boolean[][] otherAgentsPlan, Color boxColor, Direction dir, int mode) {
-		switch(dir) {
-			case left:
-				row -= 1;
-				break;
-			case right:
-				row += 1;
-				break;
-			case up:
-				col -= 1;
-				break;
-			case down:
-				col += 1;
-		}
-		
-		if(!walls[row][col] && copyOfLevelToSearch[row][col] != '!'){	// Check whether the new/neighbour cell has not already been explored
-			switch(mode) {
-				case 0:
-					queue.add(createPosDistArray(row, col, dist));	// Explores cells and add them to the queue if the wanted box is not in the current cell
-					break;
-					
-				case 1:
-					if(copyOfLevelToSearch[row][col] >= 'A' && copyOfLevelToSearch[row][col] <= 'Z' &&
-						this.colorAssignments.get(copyOfLevelToSearch[row][col]) != agentColor){	// Check that a box of the same color as the agent is not in the current cell
-						break;
-					}
-					queue.add(createPosDistArray(row,col, dist));
-					break;
-					
-				case 2:
-					if(otherAgentsPlan[row][col] && !differentColoredAgentInCell(row, col, boxColor)) {	// Checks whether the cell is in a critical section. PROBLEM: Never adds the free cell!!!
-						queue.add(createPosDistArray(row,col, dist));
-					}
-					break;
-				case 3:
-					queue.add(createPosDistArray(row, col, dist));
-					break;
-				case 4:
-					if((copyOfLevelToSearch[row][col] == '?' || (row == destination[0] && col == destination[1])) && !otherAgentAtPos(agent, row, col)){
-						queue.add(createPosDistArray(row, col, dist));
-//						// System.err.println(destination[0] + "," + destination[1]);
-//						for(int r = 0; r < rows; r++) {
-//							for(int c = 0; c < cols; c++) {
-//								if(walls[r][c]){
-//									// System.err.print("+");
-//								}
-//								else {
-//									// System.err.print(copyOfLevelToSearch[r][c]);
-//								}
-//							}
-//							// System.err.println();
-//						}
-//						// System.err.println();
-					}
+	private void expandClear(Scratch s, int row, int col, int dist, int agent, int destination) {
+		int cell = row * cols + col;
+		if(!walls[row][col] && s.mark(cell)){
+			if((!n.boxAt(row, col) || cell == destination) && !otherAgentAtPos(agent, row, col)){
+				s.enqueue(cell, dist);
 			}
-			copyOfLevelToSearch[row][col] = '!';	// This marks that the cell has already been considered
-			
 		}
-		
 	}
 	
-	public void exploreCellNewAux(int agent, int row, int col, int dist, Color agentColor, boolean[][] otherAgentsPlan, Color boxColor, Direction dir, int mode) {
-		switch(dir) { /// what cell to enqueue
-		case left:
-			row -= 1;
-			break;
-		case right:
-			row += 1;
-			break;
-		case up:
-			col -= 1;
-			break;
-		case down:
-			col += 1;
+	private void expandFree(Scratch s, int row, int col, int dist, int agent) {
+		int cell = row * cols + col;
+		if(!walls[row][col] && s.mark(cell)){
+			if(!n.boxAt(row, col) && !otherAgentAtPos(agent, row, col)){
+				s.enqueue(cell, dist);	// Adds a cell to the queue if it does not contain another agent or a box
+			}
 		}
+	}
 	
-		if(!walls[row][col] && copyOfLevelToSearch[row][col] != '!'){	// Check whether the new/neighbour cell has not already been explored
-			switch(mode) {
-				case 0:
-				case 1:
-					if(copyOfLevelToSearch[row][col] == '?' && !otherAgentAtPos(agent, row, col)) {
-//						// System.err.println("Exploring");
-						queue.add(createPosDistArray(row, col, dist));	// Adds a cell to the queue if it does not contain another agent or a box
-					}
+	private void expandPath(Scratch s, int row, int col, int dist, int agent, int from) {
+		int cell = row * cols + col;
+		if(!walls[row][col] && s.mark(cell)){
+			if(!n.boxAt(row, col) && !otherAgentAtPos(agent, row, col)){
+				s.enqueue(cell, dist);
+				s.from[cell] = from;	// Remembered to rebuild the path (see agentPath)
 			}
-			copyOfLevelToSearch[row][col] = '!';	// This marks that the cell has already been considered
 		}
 	}
 	
@@ -428,11 +420,50 @@ public class BFS {
 		this.walls[row][col] = setTo;
 	}
 	
-	public void resetCopyOfLevel(){
-		for(int row = 0; row < rows; row++){
-			for(int col = 0; col < cols; col++){
-				copyOfLevelToSearch[row][col] = levelToSearch[row][col];
+	/**
+	 * Queue and visited marks of a search. Instead of clearing the marks, every search bumps the stamp; a cell is
+	 * visited if its mark equals the current stamp. Every cell enters the queue at most once per search, so the queue
+	 * is a plain array of cells and never needs to wrap around.
+	 */
+	private static class Scratch {
+		int[] visitedStamp = new int[0];
+		int[] dist = new int[0];
+		int[] queue = new int[0];
+		int[] from = new int[0];
+		int stamp = 0;
+		int head;
+		int tail;
+		
+		void begin(int cells) {
+			if(visitedStamp.length < cells) {
+				visitedStamp = new int[cells];
+				dist = new int[cells];
+				queue = new int[cells];
+				from = new int[cells];
+				stamp = 0;
 			}
+			if(++stamp == Integer.MAX_VALUE) {
+				Arrays.fill(visitedStamp, 0);
+				stamp = 1;
+			}
+			head = 0;
+			tail = 0;
+		}
+		
+		/**
+		 * Marks the cell as visited; returns false if it already was.
+		 */
+		boolean mark(int cell) {
+			if(visitedStamp[cell] == stamp) {
+				return false;
+			}
+			visitedStamp[cell] = stamp;
+			return true;
+		}
+		
+		void enqueue(int cell, int d) {
+			dist[cell] = d;
+			queue[tail++] = cell;
 		}
 	}
 }
@@ -0,0 +1,286 @@
+package searchclient;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Frontier for best-first search that groups nodes into buckets by their (integer) f value, which must have been
+ * cached on the node by Heuristic.evaluate before the node is added.
+ *
+ * Adding a node and polling from the current bucket are O(1). The bucket keys are kept in a small binary heap that is
+ * only touched when a bucket is created or runs empty, so the cost is O(log k) per bucket with k being the number of
+ * distinct keys, which is tiny compared to the number of nodes.
+ */
+public class BucketQueue extends AbstractQueue<Node> {
+	/**
+	 * Order of the nodes with equal f.
+	 */
+	public static enum TieBreaking {
+		/**
+		 * Prefer nodes with higher g, i.e. nodes deeper in the search; ties on g are broken FIFO.
+		 */
+		highg,
+		/**
+		 * Last in, first out.
+		 */
+		lifo,
+		/**
+		 * First in, first out.
+		 */
+		fifo
+	}
+
+	private final TieBreaking tieBreaking;
+
+	/**
+	 * Buckets by key; open addressing with linear probing. Buckets are never removed, empty ones are simply reused.
+	 */
+	private long[] keys = new long[64];
+	private Bucket[] buckets = new Bucket[64];
+	private int bucketCount = 0;
+
+	/**
+	 * Binary min-heap with keys of the non-empty buckets.
+	 */
+	private long[] heap = new long[64];
+	private int heapSize = 0;
+
+	/**
+	 * Bucket with the smallest key, i.e. the one at the top of the heap (null if the queue is empty).
+	 */
+	private Bucket current = null;
+
+	private int size = 0;
+
+	public BucketQueue(TieBreaking tieBreaking) {
+		this.tieBreaking = tieBreaking;
+	}
+
+	private long keyOf(Node n) {
+		if (tieBreaking == TieBreaking.highg)
+			// Higher g gives a smaller key within the same f
+			return ((long) n.f << 32) | (0xFFFFFFFFL - n.g());
+		return n.f;
+	}
+
+	@Override
+	public boolean offer(Node n) {
+		long key = keyOf(n);
+		Bucket bucket = bucketFor(key);
+
+		if (bucket.isEmpty()) {
+			heapPush(key);
+			if (current == null || key < current.key)
+				current = bucket;
+		}
+
+		bucket.add(n);
+		size++;
+		return true;
+	}
+
+	@Override
+	public Node poll() {
+		if (current == null)
+			return null;
+
+		Node n = tieBreaking == TieBreaking.lifo ? current.pollLast() : current.pollFirst();
+		size--;
+
+		if (current.isEmpty()) {
+			heapPop();
+			current = heapSize == 0 ? null : bucketFor(heap[0]);
+		}
+
+		return n;
+	}
+
+	@Override
+	public Node peek() {
+		if (current == null)
+			return null;
+
+		return tieBreaking == TieBreaking.lifo ? current.peekLast() : current.peekFirst();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		keys = new long[64];
+		buckets = new Bucket[64];
+		bucketCount = 0;
+		heapSize = 0;
+		current = null;
+		size = 0;
+	}
+
+	@Override
+	public Iterator<Node> iterator() {
+		return new Iterator<Node>() {
+			private int slot = 0;
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				while (slot < buckets.length && (buckets[slot] == null || index >= buckets[slot].size())) {
+					slot++;
+					index = 0;
+				}
+				return slot < buckets.length;
+			}
+
+			@Override
+			public Node next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return buckets[slot].get(index++);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "Bucket queue (" + tieBreaking + ")";
+	}
+
+	private Bucket bucketFor(long key) {
+		int mask = keys.length - 1;
+		int slot = (int) (key ^ (key >>> 29) ^ (key >>> 41)) & mask;
+		while (buckets[slot] != null) {
+			if (keys[slot] == key)
+				return buckets[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		Bucket bucket = new Bucket(key);
+		keys[slot] = key;
+		buckets[slot] = bucket;
+		bucketCount++;
+
+		if (bucketCount * 2 > keys.length)
+			growBuckets();
+
+		return bucket;
+	}
+
+	private void growBuckets() {
+		long[] oldKeys = keys;
+		Bucket[] oldBuckets = buckets;
+		keys = new long[oldKeys.length * 2];
+		buckets = new Bucket[oldBuckets.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldBuckets.length; i++) {
+			if (oldBuckets[i] != null) {
+				long key = oldKeys[i];
+				int slot = (int) (key ^ (key >>> 29) ^ (key >>> 41)) & mask;
+				while (buckets[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				buckets[slot] = oldBuckets[i];
+			}
+		}
+	}
+
+	private void heapPush(long key) {
+		if (heapSize == heap.length) {
+			long[] bigger = new long[heap.length * 2];
+			System.arraycopy(heap, 0, bigger, 0, heapSize);
+			heap = bigger;
+		}
+
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (heap[parent] <= key)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = key;
+	}
+
+	private void heapPop() {
+		long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child])
+				child++;
+			if (last <= heap[child])
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		if (heapSize > 0)
+			heap[i] = last;
+	}
+
+	/**
+	 * Growable ring buffer of nodes with equal key.
+	 */
+	private static class Bucket {
+		final long key;
+		private Node[] nodes = new Node[16];
+		private int head = 0;
+		private int count = 0;
+
+		Bucket(long key) {
+			this.key = key;
+		}
+
+		boolean isEmpty() {
+			return count == 0;
+		}
+
+		int size() {
+			return count;
+		}
+
+		Node get(int index) {
+			return nodes[(head + index) & (nodes.length - 1)];
+		}
+
+		void add(Node n) {
+			if (count == nodes.length) {
+				Node[] bigger = new Node[nodes.length * 2];
+				for (int i = 0; i < count; i++)
+					bigger[i] = get(i);
+				nodes = bigger;
+				head = 0;
+			}
+			nodes[(head + count) & (nodes.length - 1)] = n;
+			count++;
+		}
+
+		Node peekFirst() {
+			return nodes[head];
+		}
+
+		Node peekLast() {
+			return get(count - 1);
+		}
+
+		Node pollFirst() {
+			Node n = nodes[head];
+			nodes[head] = null;
+			head = (head + 1) & (nodes.length - 1);
+			count--;
+			return n;
+		}
+
+		Node pollLast() {
+			int tail = (head + count - 1) & (nodes.length - 1);
+			Node n = nodes[tail];
+			nodes[tail] = null;
+			count--;
+			return n;
+		}
+	}
+}
@@ -9,7 +9,7 @@ public class Command {
 	};
 
 	public static enum Type {
-		Move, Push, Pull
+		Move, Push, Pull, NoOp
 	};
 	
 	public static final Command[] EVERY;
@@ -18,22 +18,36 @@ public class Command {
 		for (Dir d1 : Dir.values()) {
 			for (Dir d2 : Dir.values()) {
 				if (!Command.isOpposite(d1, d2)) {
-					cmds.add(new Command(Type.Push, d1, d2));
+					cmds.add(new Command(Type.Push, d1, d2, cmds.size()));
 				}
 			}
 		}
 		for (Dir d1 : Dir.values()) {
 			for (Dir d2 : Dir.values()) {
 				if (d1 != d2) {
-					cmds.add(new Command(Type.Pull, d1, d2));
+					cmds.add(new Command(Type.Pull, d1, d2, cmds.size()));
 				}
 			}
 		}
 		for (Dir d : Dir.values()) {
-			cmds.add(new Command(d));
+			cmds.add(new Command(d, cmds.size()));
 		}
 
 		EVERY = cmds.toArray(new Command[0]);
+		NOOP = new Command(EVERY.length);
+	}
+
+	/**
+	 * Waiting for one step. Not part of EVERY since searches only wait in cooperative mode, for a cell reserved by
+	 * another agent to clear (see Node.assignCommands and SearchClient.cooperative).
+	 */
+	public static final Command NOOP;
+
+	/**
+	 * Returns the command with given ordinal (NOOP comes right after EVERY).
+	 */
+	public static Command byOrdinal(int ordinal) {
+		return ordinal == NOOP.ordinal ? NOOP : EVERY[ordinal];
 	}
 
 	public static boolean isOpposite(Dir d1, Dir d2) {
@@ -68,16 +82,30 @@ public class Command {
 	public final Dir dir1;
 	public final Dir dir2;
 
-	public Command(Dir d) {
+	/**
+	 * Index of the command in EVERY.
+	 */
+	public final int ordinal;
+
+	private Command(int ordinal) {
+		this.actionType = Type.NoOp;
+		this.dir1 = null;
+		this.dir2 = null;
+		this.ordinal = ordinal;
+	}
+
+	private Command(Dir d, int ordinal) {
 		this.actionType = Type.Move;
 		this.dir1 = d;
 		this.dir2 = null;
+		this.ordinal = ordinal;
 	}
 
-	public Command(Type t, Dir d1, Dir d2) {
+	private Command(Type t, Dir d1, Dir d2, int ordinal) {
 		this.actionType = t;
 		this.dir1 = d1;
 		this.dir2 = d2;
+		this.ordinal = ordinal;
 	}
 	
 	@Override
@@ -94,7 +122,9 @@ public class Command {
 
 	@Override
 	public String toString() {
-		if (this.actionType == Type.Move) {
+		if (this.actionType == Type.NoOp) {
+			return "NoOp";
+		} else if (this.actionType == Type.Move) {
                //  System.out.println("my ln"+String.format("[%s(%s)]", this.actionType.toString(), this.dir1.toString()));
 			return String.format("%s(%s)", this.actionType.toString(), this.dir1.toString());
                 } else{
@@ -0,0 +1,344 @@
+package searchclient;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Conflict-Based Search over the current HLAs of several agents. The high level is a tree of constraints: a node holds
+ * one low level plan per agent (found by the agent's own strategy, see SearchClient.planLowLevel) and the constraints
+ * these plans obey. Nodes are expanded cheapest first (sum of the plan lengths); the first conflict between two plans
+ * splits a node into one child per agent, in which that agent has to keep off the cell at the time it uses it there. A
+ * node without conflicts is the solution.
+ *
+ * Agents and the boxes they move both occupy cells, so conflicts may be between two agents, an agent and a box or two
+ * boxes. A moved box occupies its cell until it is moved again, also after the plan has ended. A cell also stays occupied one step after it has been left, since the server does not let anything enter a
+ * cell that was occupied at the start of the joint action; this covers swaps as well. The constraints of an agent are
+ * kept in a ReservationTable, which is what the searches already obey in cooperative mode. A reservation also keeps
+ * the agent off the cell one step before and after, so a constraint holds for both agents of a follow conflict.
+ *
+ * The search gives up after a number of low level searches, so the reactive conflict handling of the main loop stays
+ * as the fallback.
+ */
+public class ConflictBasedSearch {
+	/**
+	 * Kinds of conflicts, for the statistics.
+	 */
+	private static final String[] KINDS = { "agent-agent", "agent-box", "box-box", "follow/swap" };
+
+	private final SearchClient client;
+
+	/**
+	 * Maximum number of low level searches per call of plan.
+	 */
+	public final int budget;
+
+	/**
+	 * Number of conflicts found so far per kind (indexed as KINDS).
+	 */
+	private final long[] conflicts = new long[KINDS.length];
+
+	private long solved = 0;
+	private long givenUp = 0;
+
+	public ConflictBasedSearch(SearchClient client, int budget) {
+		this.client = client;
+		this.budget = budget;
+	}
+
+	/**
+	 * Constraint of a high level node: given agent has to keep off given cell at given time, or from given time on if
+	 * parked. Constraints form a list from a node up to the root.
+	 */
+	private static class Constraint {
+		final int agent;
+		final int cell;
+		final int time;
+		final boolean parked;
+		final Constraint next;
+
+		Constraint(int agent, int cell, int time, boolean parked, Constraint next) {
+			this.agent = agent;
+			this.cell = cell;
+			this.time = time;
+			this.parked = parked;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Node of the constraint tree. Plans and flags are indexed by the position of the agent in the planned agents.
+	 */
+	private static class HighLevelNode implements Comparable<HighLevelNode> {
+		final Plan[] plans;
+		final boolean[] reached;
+		final Constraint constraints;
+		final int cost;
+		final long order;
+
+		HighLevelNode(Plan[] plans, boolean[] reached, Constraint constraints, long order) {
+			this.plans = plans;
+			this.reached = reached;
+			this.constraints = constraints;
+			this.order = order;
+			int cost = 0;
+			for (Plan plan : plans) {
+				cost += plan.size();
+			}
+			this.cost = cost;
+		}
+
+		@Override
+		public int compareTo(HighLevelNode other) {
+			if (this.cost != other.cost) {
+				return Integer.compare(this.cost, other.cost);
+			}
+			return Long.compare(this.order, other.order);
+		}
+	}
+
+	/**
+	 * Conflict between two plans: agents a and b (positions in the given plans) occupy the cell, a at time timeA and b
+	 * at time timeB (equal, or one apart if b has just left the cell). Kind is the index in KINDS.
+	 */
+	static class Conflict {
+		int a, b;
+		int cell;
+		int timeA, timeB;
+		int kind;
+	}
+
+	/**
+	 * Plans the current HLAs of the given agents (already set up by SearchClient.prepareNextHLA) free of conflicts
+	 * with each other and with the remaining plans of all other agents. On success the plans are stored and the HLA
+	 * bookkeeping is done as in SearchClient.searchNextHLA; otherwise nothing is changed and the origin nodes are back
+	 * in the frontiers of their strategies.
+	 * @return Whether conflict-free plans were found within the budget.
+	 */
+	public boolean plan(HashMap<Integer, Plan> agentLowLevelPlans, List<Integer> agents) {
+		int count = agents.size();
+		Node[] origins = new Node[count];
+		int[] starts = new int[count];
+		for (int i = 0; i < count; i++) {
+			origins[i] = client.agentOriginNode.get(agents.get(i));
+			starts[i] = origins[i].agents[origins[i].agentNo][0] * origins[i].cols + origins[i].agents[origins[i].agentNo][1];
+		}
+
+		Plan[] plans = new Plan[count];
+		boolean[] reached = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			plans[i] = search(origins[i], agents, agentLowLevelPlans, null, i);
+			reached[i] = reachedGoal;
+			if (plans[i] == null) {
+				// Nothing to resolve for an agent without a plan; it just stays where it is
+				plans[i] = new Plan(agents.get(i));
+			}
+		}
+
+		long order = 0;
+		int searches = count;
+		PriorityQueue<HighLevelNode> open = new PriorityQueue<HighLevelNode>();
+		open.add(new HighLevelNode(plans, reached, null, order++));
+
+		HighLevelNode solution = null;
+		while (!open.isEmpty() && searches < budget) {
+			HighLevelNode node = open.poll();
+			Conflict conflict = firstConflict(node.plans, starts, Integer.MAX_VALUE);
+			if (conflict == null) {
+				solution = node;
+				break;
+			}
+			conflicts[conflict.kind]++;
+
+			// Constrain either agent by the occupation of the other one
+			for (int side = 0; side < 2 && searches < budget; side++) {
+				int agent = side == 0 ? conflict.a : conflict.b;
+				int other = side == 0 ? conflict.b : conflict.a;
+				int time = side == 0 ? conflict.timeA : conflict.timeB;
+				int otherTime = side == 0 ? conflict.timeB : conflict.timeA;
+				if (time < 1 || time > node.plans[agent].size()) {
+					// The agent is still at its start or has already finished its plan, which no search can change
+					continue;
+				}
+
+				int otherSize = node.plans[other].size();
+				boolean parked = otherSize == 0 || otherTime > otherSize;
+				// The agent keeps off the cell at the time it occupies it, e.g. in a follow conflict the agent that is
+				// still in the cell has to have left it before the other one enters
+				Constraint constraints = new Constraint(agent, conflict.cell, parked ? otherSize + 1 : time, parked, node.constraints);
+
+				Plan plan = search(origins[agent], agents, agentLowLevelPlans, constraints, agent);
+				searches++;
+				if (plan == null || sameCells(plan, node.plans[agent])) {
+					// A child with the same plan would only run into the same conflict again
+					continue;
+				}
+				Plan[] childPlans = node.plans.clone();
+				boolean[] childReached = node.reached.clone();
+				childPlans[agent] = plan;
+				childReached[agent] = reachedGoal;
+				open.add(new HighLevelNode(childPlans, childReached, constraints, order++));
+			}
+		}
+
+		if (SearchClient.printStats) {
+			System.err.println("CBS for agents " + agents + (solution != null ? " solved" : " gave up") + " after " + searches
+					+ " searches; conflicts so far: " + conflictStatus());
+		}
+
+		if (solution == null) {
+			givenUp++;
+			for (Node origin : origins) {
+				origin.strategy.addToFrontier(origin);
+			}
+			return false;
+		}
+
+		solved++;
+		for (int i = 0; i < count; i++) {
+			Node origin = origins[i];
+			if (solution.reached[i]) {
+				origin.pastActions.add(origin.curAction);
+			} else if (solution.plans[i].isEmpty()) {
+				origin.plannedActions.add(0, origin.curAction); /// as searchNextHLA does for agents without a plan
+			}
+			agentLowLevelPlans.put(agents.get(i), solution.plans[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the last search reached the goal of the HLA rather than stopping at the iteration limit (see
+	 * Node.isGoalState).
+	 */
+	private boolean reachedGoal;
+
+	/**
+	 * Searches for the plan of the agent at given position obeying its constraints and the remaining plans of the
+	 * agents that are not planned here. The origin is left as it was, i.e. a HLA reached by the search is removed from
+	 * pastActions again (see reachedGoal).
+	 * @return Plan of the agent or null if there is none.
+	 */
+	private Plan search(Node origin, List<Integer> agents, HashMap<Integer, Plan> agentLowLevelPlans, Constraint constraints, int agent) {
+		ReservationTable reservations = new ReservationTable(origin.rows * origin.cols, origin.g());
+		for (Map.Entry<Integer, Plan> plan : agentLowLevelPlans.entrySet()) {
+			if (!agents.contains(plan.getKey())) {
+				reservations.reserve(plan.getValue());
+			}
+		}
+		for (Constraint c = constraints; c != null; c = c.next) {
+			if (c.agent == agent) {
+				if (c.parked) {
+					reservations.park(c.cell, c.time);
+				} else {
+					reservations.reserve(c.cell, c.time);
+				}
+			}
+		}
+
+		Strategy strategy = origin.strategy;
+		int pastActions = origin.pastActions.size();
+		strategy.clearFrontier();
+		strategy.reservations = reservations;
+		strategy.addToFrontier(origin);
+		Plan plan;
+		try {
+			plan = client.planLowLevel(origin, origin.agentNo);
+		} finally {
+			strategy.reservations = null;
+			strategy.clearFrontier();
+		}
+
+		reachedGoal = origin.pastActions.size() > pastActions;
+		while (origin.pastActions.size() > pastActions) {
+			origin.pastActions.remove(origin.pastActions.size() - 1);
+		}
+		return plan;
+	}
+
+	/**
+	 * Finds the earliest conflict between any two of the given plans up to given time.
+	 * @param starts Cells of the agents before the first step.
+	 * @return The conflict or null if the plans do not conflict.
+	 */
+	static Conflict firstConflict(Plan[] plans, int[] starts, int maxTime) {
+		int horizon = 0;
+		int[][][] cells = new int[plans.length][][];
+		for (int i = 0; i < plans.length; i++) {
+			horizon = Math.max(horizon, plans[i].size() + 1);
+			cells[i] = occupiedCells(plans[i], starts[i]);
+		}
+		horizon = Math.min(horizon, maxTime);
+
+		for (int time = 1; time <= horizon; time++) {
+			for (int a = 0; a < plans.length; a++) {
+				int[] cellsA = cells[a][Math.min(time, cells[a].length - 1)];
+				for (int b = 0; b < plans.length; b++) {
+					if (a == b) {
+						continue;
+					}
+					// Cells of a against cells of b at the same time and, for the cells a enters, the time before
+					for (int timeB = time; timeB >= time - 1; timeB--) {
+						int[] cellsB = cells[b][Math.min(timeB, cells[b].length - 1)];
+						for (int i = 0; i < cellsA.length; i++) {
+							for (int j = 0; j < cellsB.length; j++) {
+								if (cellsA[i] == cellsB[j]) {
+									Conflict conflict = new Conflict();
+									conflict.kind = timeB != time ? 3 : (i > 0 ? 1 : 0) + (j > 0 ? 1 : 0);
+									conflict.a = a;
+									conflict.b = b;
+									conflict.cell = cellsA[i];
+									conflict.timeA = time;
+									conflict.timeB = timeB;
+									return conflict;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Cells occupied by the agent (first) and by every box it has moved so far (see Plan.movedBoxCells), indexed by
+	 * time. Time 0 is before the first step; the last element also holds for every time after the plan.
+	 */
+	private static int[][] occupiedCells(Plan plan, int start) {
+		int size = plan.size();
+		int[][] boxCells = plan.movedBoxCells();
+		int[][] cells = new int[size + 1][];
+		cells[0] = new int[] { start };
+		for (int step = 0; step < size; step++) {
+			cells[step + 1] = new int[boxCells[step].length + 1];
+			cells[step + 1][0] = plan.agentCell(step);
+			System.arraycopy(boxCells[step], 0, cells[step + 1], 1, boxCells[step].length);
+		}
+		return cells;
+	}
+
+	/**
+	 * Checks whether two plans occupy the same cells at every step.
+	 */
+	private static boolean sameCells(Plan a, Plan b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int step = 0; step < a.size(); step++) {
+			if (a.agentCell(step) != b.agentCell(step) || a.boxCell(step) != b.boxCell(step)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String conflictStatus() {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < KINDS.length; i++) {
+			s.append(KINDS[i]).append(": ").append(conflicts[i]).append(", ");
+		}
+		return s.append("solved: ").append(solved).append(", gave up: ").append(givenUp).toString();
+	}
+}
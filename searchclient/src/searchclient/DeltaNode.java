@@ -0,0 +1,110 @@
+package searchclient;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact form of a search node that only stores how it differs from its parent: the command applied by the searching
+ * agent and the box it moved. The full Node is rebuilt on demand by replaying the commands from the closest ancestor
+ * that is still materialized (see Cache).
+ */
+public class DeltaNode {
+	/**
+	 * Rough size of a DeltaNode on a 64-bit JVM with compressed references.
+	 */
+	public static final int BYTES = 48;
+
+	final DeltaNode parent;
+	final Command action;
+	final int g;
+	final long hash;
+
+	/**
+	 * ID of the box moved by the action (0 if none) and its new cell.
+	 */
+	final int boxId;
+	final int boxCell;
+
+	/**
+	 * Full node for the nodes whose state cannot be derived from the parent: the node a search starts from and nodes
+	 * changed in place after they were created (see SearchClient.searchForAgent).
+	 */
+	Node pinned;
+
+	private DeltaNode(DeltaNode parent, Command action, int g, long hash, int boxId, int boxCell) {
+		this.parent = parent;
+		this.action = action;
+		this.g = g;
+		this.hash = hash;
+		this.boxId = boxId;
+		this.boxCell = boxCell;
+	}
+
+	public static DeltaNode root(Node n) {
+		DeltaNode d = new DeltaNode(null, n.action, n.g(), n.zobristHash(), 0, -1);
+		d.pin(n);
+		return d;
+	}
+
+	/**
+	 * Compact form of given node whose parent is the node materialized from the given delta node.
+	 */
+	public static DeltaNode child(DeltaNode parent, Node n) {
+		int boxId = n.movedBox();
+		return new DeltaNode(parent, n.action, n.g(), n.zobristHash(), boxId, boxId > 0 ? n.boxCell(boxId) : -1);
+	}
+
+	public void pin(Node n) {
+		this.pinned = n;
+	}
+
+	/**
+	 * LRU of materialized nodes. Best-first and breadth-first searches expand the children of a node one after another,
+	 * so the parent of a polled node is usually still cached.
+	 */
+	public static class Cache {
+		private final Map<DeltaNode, Node> nodes;
+		private final ArrayList<DeltaNode> path = new ArrayList<DeltaNode>();
+
+		public Cache(final int capacity) {
+			this.nodes = new LinkedHashMap<DeltaNode, Node>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<DeltaNode, Node> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		public Node materialize(DeltaNode d) {
+			Node base;
+			DeltaNode cur = d;
+			while (true) {
+				if (cur.pinned != null) {
+					base = cur.pinned;
+					break;
+				}
+				base = nodes.get(cur);
+				if (base != null)
+					break;
+				path.add(cur);
+				cur = cur.parent;
+			}
+
+			for (int i = path.size() - 1; i >= 0; i--) {
+				DeltaNode step = path.get(i);
+				base = base.deltaChild(step.action, step.boxId, step.boxCell);
+				nodes.put(step, base);
+			}
+			path.clear();
+
+			return base;
+		}
+
+		public void clear() {
+			nodes.clear();
+		}
+	}
+}
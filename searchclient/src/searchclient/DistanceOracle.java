@@ -0,0 +1,121 @@
+package searchclient;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shortest path distances between cells of a level considering walls only (boxes and agents are ignored), i.e. the
+ * same distances as BFS.distance. A distance map is computed once per target cell and cached, so repeated queries
+ * towards the same cell are O(1).
+ *
+ * Lookups read the slot of the target cell without locking, since the concurrent planners query distances on every
+ * heuristic evaluation. Only adding a map takes a lock; once the cache is full the oldest map is dropped.
+ */
+public class DistanceOracle {
+	/**
+	 * Number of distance maps kept in memory; each map holds one int per cell of the level.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final boolean[][] walls;
+	private final int rows;
+	private final int cols;
+
+	private final int capacity;
+
+	/**
+	 * Distance map of every target cell or null if not cached.
+	 */
+	private final AtomicReferenceArray<int[]> maps;
+
+	/**
+	 * Target cells of the cached maps in the order they were added; guarded by itself.
+	 */
+	private final ArrayDeque<Integer> added = new ArrayDeque<Integer>();
+
+	public DistanceOracle(boolean[][] walls, int rows, int cols) {
+		this(walls, rows, cols, DEFAULT_CAPACITY);
+	}
+
+	public DistanceOracle(boolean[][] walls, int rows, int cols, int capacity) {
+		this.walls = walls;
+		this.rows = rows;
+		this.cols = cols;
+		this.capacity = capacity;
+		this.maps = new AtomicReferenceArray<int[]>(rows * cols);
+	}
+
+	/**
+	 * Finds a distance between [x1, y1] and [x2, y2] or returns -1 if there is no path. The distance map is cached for
+	 * [x2, y2], so the cell that changes less often should be passed as the second one.
+	 */
+	public int distance(int x1, int y1, int x2, int y2) {
+		return distanceMap(x2, y2)[x1 * cols + y1];
+	}
+
+	/**
+	 * Returns distances of all cells to given cell (-1 for unreachable cells and walls).
+	 */
+	public int[] distanceMap(int row, int col) {
+		int target = row * cols + col;
+
+		int[] map = maps.get(target);
+		if (map != null) {
+			return map;
+		}
+
+		// Computed outside of the lock; two threads may compute the same map, then the first one is kept
+		map = flood(row, col);
+		synchronized (added) {
+			int[] cached = maps.get(target);
+			if (cached != null) {
+				return cached;
+			}
+			maps.set(target, map);
+			added.add(target);
+			if (added.size() > capacity) {
+				// Threads still holding the dropped map keep using it
+				maps.set(added.poll(), null);
+			}
+		}
+
+		return map;
+	}
+
+	private int[] flood(int row, int col) {
+		int[] dist = new int[rows * cols];
+		Arrays.fill(dist, -1);
+
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		int start = row * cols + col;
+		dist[start] = 0;
+		queue.add(start);
+
+		while (!queue.isEmpty()) {
+			int cell = queue.poll();
+			int r = cell / cols;
+			int c = cell % cols;
+			int d = dist[cell] + 1;
+
+			if (r > 0 && !walls[r - 1][c] && dist[cell - cols] == -1) {
+				dist[cell - cols] = d;
+				queue.add(cell - cols);
+			}
+			if (r < rows - 1 && !walls[r + 1][c] && dist[cell + cols] == -1) {
+				dist[cell + cols] = d;
+				queue.add(cell + cols);
+			}
+			if (c > 0 && !walls[r][c - 1] && dist[cell - 1] == -1) {
+				dist[cell - 1] = d;
+				queue.add(cell - 1);
+			}
+			if (c < cols - 1 && !walls[r][c + 1] && dist[cell + 1] == -1) {
+				dist[cell + 1] = d;
+				queue.add(cell + 1);
+			}
+		}
+
+		return dist;
+	}
+}
@@ -11,6 +11,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import models.*;
 
@@ -23,6 +24,13 @@ public abstract class Heuristic implements Comparator<Node> {
 	
 	public ArrayList<int[]> goals;
 	
+	/**
+	 * Number of times h() has been evaluated and number of comparisons done by the priority queue. Before f was cached
+	 * on the nodes, every comparison evaluated h twice.
+	 */
+	public final AtomicLong evaluations = new AtomicLong();
+	public final AtomicLong comparisons = new AtomicLong();
+	
 	
 	public Heuristic(Node initialState) {
 		// Here's a chance to pre-process the static parts of the level.
@@ -61,6 +69,9 @@ public abstract class Heuristic implements Comparator<Node> {
 		
 		HighLevelAction hla = n.curAction;
 		
+		// The node from which a search starts has no action; it is then treated like a move
+		Type actionType = n.action == null ? Type.Move : n.action.actionType;
+		
 		int pastGoalSatisficationHLAsCount = 0;
 		if (n.curAction instanceof SatisfyGoalHLA)
 			pastGoalSatisficationHLAsCount++;
@@ -70,148 +81,120 @@ public abstract class Heuristic implements Comparator<Node> {
 
 			int agentRow = n.agents[n.agentNo][0];
 			int agentCol = n.agents[n.agentNo][1];
-			int boxRow = -1;
-			int boxCol = -1;
+			int boxCell = n.boxCell(action.box.id);
 			
-			for (int row = 1; row < n.rows - 1; row++) {
-				for (int col = 1; col < n.cols - 1; col++) {
-					if (n.boxIds[row][col] == action.box.id) {
-						// We have found the box towards which we want to move
-						
-						boxRow = row;
-						boxCol = col;
-					}
+			if (boxCell != -1) {
+				int boxRow = boxCell / n.cols;
+				int boxCol = boxCell % n.cols;
+
+				if (Utils.isNeighboringPosition(agentRow, agentCol, boxRow, boxCol)) {
+					return 0;
+				} 
 					
-					// Sufficient to check just row/col since once either of them has been set to something else, then
-					// the other value must've been set as well
-					if (boxRow != -1) {
-						if (Utils.isNeighboringPosition(agentRow, agentCol, boxRow, boxCol)) {
-							return 0;
-						} 
-							
-						// We now have found both the agent and the box; 
-						// Calculate the distance between them
+				// We now have found both the agent and the box; 
+				// Calculate the distance between them
 
-						
-						BFS dbfs = new BFS(n);
-						
-						int dist = dbfs.distance(agentRow, agentCol, boxRow, boxCol);
-						
-						int cost = (int)Math.round(dist * precision);
-						
-						cost += Math.abs(n.unsatisfiedGoalCount()) * precision * 5000; // 999999
-						
-						if (n.action.actionType != Type.Move)
-							// Previously MAX_VALUE
-							cost += 10 * precision;
-						
-						if (n.action.actionType == Type.Pull)
-							cost += 2 * precision;
-						
-						return cost;
-					}
-				}
+				
+				int dist = n.level.distances.distance(agentRow, agentCol, boxRow, boxCol);
+				
+				int cost = (int)Math.round(dist * precision);
+				
+				cost += Math.abs(n.unsatisfiedGoalCount()) * precision * 5000; // 999999
+				
+				if (actionType != Type.Move)
+					// Previously MAX_VALUE
+					cost += 10 * precision;
+				
+				if (actionType == Type.Pull)
+					cost += 2 * precision;
+				
+				return cost;
 			}
 		} else if (hla instanceof SatisfyGoalHLA) {
 			SatisfyGoalHLA action = (SatisfyGoalHLA) hla;
 
 			int agentRow = n.agents[n.agentNo][0];
 			int agentCol = n.agents[n.agentNo][1];
-			int boxRow = -1;
-			int boxCol = -1;
-			int goalRow = -1;
-			int goalCol = -1;
+			int boxCell = n.boxCell(action.box.id);
+			int goalCell = n.level.goalCell(action.box.goal.id);
 			
-			for (int row = 1; row < n.rows - 1; row++) {
-				for (int col = 1; col < n.cols - 1; col++) {
-					if (n.boxIds[row][col] == action.box.id) {
-						// We have found the box towards which we want to move
-						
-						boxRow = row;
-						boxCol = col;
-					}
-					
-					if (n.goalIds[row][col] == action.box.goal.id) {
-						// We have found the goal, which we want to satisfy
+			if (boxCell != -1 && goalCell != -1) {
+				int boxRow = boxCell / n.cols;
+				int boxCol = boxCell % n.cols;
+				int goalRow = goalCell / n.cols;
+				int goalCol = goalCell % n.cols;
 
-						goalRow = row;
-						goalCol = col;
-					}
-					
-					// Sufficient to check just row/col since once either of them has been set to something else, then
-					// the other value must've been set as well
-					if (boxRow != -1 && goalRow != -1) {
-//						.println(boxRow + "," + boxCol + "," + goalRow + "," + goalCol);
-						if (goalRow == boxRow && goalCol == boxCol) {
-//							// This action has been satisfied, move to next HLA
-//							n.pastActions.add(n.curAction);
-//							//n.curAction = null;
-//							.println("SatisfyGoalHLA satisfied, now removed");
-//							.println("Remaining unsatisfied HLAs: " + n.unsatisfiedGoalCount());
-//							.println(n.curAction);
-//							//n.strategy.refresh(n);
-//							
-//							List<Node> nodes = n.getExpandedNodes(n.agentNo);
+//				.println(boxRow + "," + boxCol + "," + goalRow + "," + goalCol);
+				if (goalRow == boxRow && goalCol == boxCol) {
+//					// This action has been satisfied, move to next HLA
+//					n.pastActions.add(n.curAction);
+//					//n.curAction = null;
+//					.println("SatisfyGoalHLA satisfied, now removed");
+//					.println("Remaining unsatisfied HLAs: " + n.unsatisfiedGoalCount());
+//					.println(n.curAction);
+//					//n.strategy.refresh(n);
+//					
+//					List<Node> nodes = n.getExpandedNodes(n.agentNo);
 //
 ////							if (n.curAction.size() == 0)
 ////								n.checkHLAs();
 //
-//							for (Node newNode : nodes)
-//								n.strategy.addToFrontier(newNode);
-							
-							return 0;
-						}
-							
-						// We now have found both the agent and the box; 
-						// Calculate the distance between them
+//					for (Node newNode : nodes)
+//						n.strategy.addToFrontier(newNode);
+					
+					return 0;
+				}
+					
+				// We now have found both the agent and the box; 
+				// Calculate the distance between them
 
-//						int w = Math.abs(goalRow - boxRow);
-//						int h = Math.abs(goalCol - boxCol);
+//				int w = Math.abs(goalRow - boxRow);
+//				int h = Math.abs(goalCol - boxCol);
 //
-//						double distBG = Math.sqrt(w*w + h*h);
-						
-						BFS dbfs = new BFS(n);
-						
-						int distBG = dbfs.distance(boxRow, boxCol, goalRow, goalCol);
-						//.println("distBG: " + distBG);
-						
-//						if(distBG == -1) {
-//							.println("No path from box at (" + boxRow + "," + boxCol + ") to goal at (" + goalRow + "," + goalCol + ")");
-//						}
-						
-//						int w = Math.abs(agentRow - boxRow);
-//						int h = Math.abs(agentCol - boxCol);
-//						
-//						double distAB = Math.sqrt(w*w + h*h);
-						
-						int distAB = dbfs.distance(agentRow, agentCol, boxRow, boxCol);
-						
-						// The agent should stay as close to his box as possible at all times
-						distAB = distAB * 50;
-						
-						int dist = distBG + distAB;
-						
-						int cost = (int)Math.round(dist * precision);
-						
-						cost += Math.abs(n.unsatisfiedGoalCount()) * precision * 1000;
-						
-						// Prefer pushing to pulling mainly because of the corridors since we don't want to end up
-						// locked up in there
-						if (n.action.actionType == Type.Pull)
-							cost += 0 * precision;
-						
-						if(action.box.letter == 'c') {
-						//	.println("aRow, aCol:" + agentRow + "," + agentCol);
-						}
-						
-						//cost += n.boxesOnWrongGoalsCount() * 1000;
-						if(action.box.letter == 'c') {
-						//	.println("BG, AB:" + distBG + "," + distAB);
-						}
-						
-						return cost;
-					}
+//				double distBG = Math.sqrt(w*w + h*h);
+				
+				int distBG = n.level.distances.distance(boxRow, boxCol, goalRow, goalCol);
+				//.println("distBG: " + distBG);
+				
+//				if(distBG == -1) {
+//					.println("No path from box at (" + boxRow + "," + boxCol + ") to goal at (" + goalRow + "," + goalCol + ")");
+//				}
+				
+//				int w = Math.abs(agentRow - boxRow);
+//				int h = Math.abs(agentCol - boxCol);
+//				
+//				double distAB = Math.sqrt(w*w + h*h);
+				
+				int distAB = n.level.distances.distance(agentRow, agentCol, boxRow, boxCol);
+				
+				// The agent should stay as close to his box as possible at all times
+				distAB = distAB * 50;
+				
+				int dist = distBG + distAB;
+				
+				int cost = (int)Math.round(dist * precision);
+				
+				cost += Math.abs(n.unsatisfiedGoalCount()) * precision * 1000;
+				
+				// Prefer pushing to pulling mainly because of the corridors since we don't want to end up
+				// locked up in there
+				if (actionType == Type.Pull)
+					cost += 0 * precision;
+				
+				// Waiting (only possible in cooperative mode) costs like the detours of GoTo and GiveWay
+				if (actionType == Type.NoOp)
+					cost += 10 * precision;
+				
+				if(action.box.letter == 'c') {
+				//	.println("aRow, aCol:" + agentRow + "," + agentCol);
+				}
+				
+				//cost += n.boxesOnWrongGoalsCount() * 1000;
+				if(action.box.letter == 'c') {
+				//	.println("BG, AB:" + distBG + "," + distAB);
 				}
+				
+				return cost;
 			}
 		}
 		else if (hla instanceof GiveWayHLA) {
@@ -220,9 +203,7 @@ public abstract class Heuristic implements Comparator<Node> {
 			int agentRow = n.agents[n.agentNo][0];
 			int agentCol = n.agents[n.agentNo][1];
 			
-			BFS dbfs = new BFS(n);
-			
-			int dist = dbfs.distance(agentRow, agentCol, action.cell[0], action.cell[1]);
+			int dist = n.level.distances.distance(agentRow, agentCol, action.cell[0], action.cell[1]);
 
 //			.println("dist: " + dist);
 //			.println("agentRow: " + agentRow);
@@ -233,11 +214,11 @@ public abstract class Heuristic implements Comparator<Node> {
 			
 			int cost = (int)Math.round(dist * precision);
 			
-			if (n.action.actionType != Type.Move)
+			if (actionType != Type.Move)
 				// Previously MAX_VALUE
 				cost += 10 * precision;
 			
-			if (n.action.actionType == Type.Pull)
+			if (actionType == Type.Pull)
 				cost += 2 * precision;
 			
 			return cost;
@@ -247,59 +228,50 @@ public abstract class Heuristic implements Comparator<Node> {
 
 			int agentRow = n.agents[n.agentNo][0];
 			int agentCol = n.agents[n.agentNo][1];
-			int boxRow = -1;
-			int boxCol = -1;
+			int boxCell = n.boxCell(action.box.id);
 			
-			for (int row = 1; row < n.rows - 1; row++) {
-				for (int col = 1; col < n.cols - 1; col++) {
-					if (n.boxIds[row][col] == action.box.id) {
-						// We have found the box towards which we want to move
-						
-						boxRow = row;
-						boxCol = col;
-					}
-					
-					// Sufficient to check just row/col since once either of them has been set to something else, then
-					// the other value must've been set as well
-					if (boxRow != -1) {
-						// We now have found both the agent and the box; 
-						// Calculate the distance between them
-						
-						BFS dbfs = new BFS(n);
-						
-						int distBC = dbfs.distance(boxRow, boxCol, action.cell[0], action.cell[1]);
-						
-						int w = Math.abs(agentRow - boxRow);
-						int h = Math.abs(agentCol - boxCol);
-						
-						double distAB = Math.sqrt(w*w + h*h);
-						
-						// The agent should stay as close to his box as possible at all times
-						distAB = distAB * 50;
-						
-						double dist = distBC + distAB;
-						
-						int cost = (int)Math.round(dist * precision);
-						
-						cost += Math.abs(n.unsatisfiedGoalCount()) * precision * 1000;
-						
-						// Prefer pushing to pulling mainly because of the corridors since we don't want to end up
-						// locked up in there
-						if (n.action.actionType == Type.Pull)
-							cost += 0 * precision;
-						
-						if(action.box.letter == 'c') {
-						//	.println("aRow, aCol:" + agentRow + "," + agentCol);
-						}
-						
-						//cost += n.boxesOnWrongGoalsCount() * 1000;
-						if(action.box.letter == 'c') {
+			if (boxCell != -1) {
+				int boxRow = boxCell / n.cols;
+				int boxCol = boxCell % n.cols;
+
+				// We now have found both the agent and the box; 
+				// Calculate the distance between them
+				
+				int distBC = n.level.distances.distance(boxRow, boxCol, action.cell[0], action.cell[1]);
+				
+				int w = Math.abs(agentRow - boxRow);
+				int h = Math.abs(agentCol - boxCol);
+				
+				double distAB = Math.sqrt(w*w + h*h);
+				
+				// The agent should stay as close to his box as possible at all times
+				distAB = distAB * 50;
+				
+				double dist = distBC + distAB;
+				
+				int cost = (int)Math.round(dist * precision);
+				
+				cost += Math.abs(n.unsatisfiedGoalCount()) * precision * 1000;
+				
+				// Prefer pushing to pulling mainly because of the corridors since we don't want to end up
+				// locked up in there
+				if (actionType == Type.Pull)
+					cost += 0 * precision;
+				
+				// Waiting (only possible in cooperative mode) costs like the detours of GoTo and GiveWay
+				if (actionType == Type.NoOp)
+					cost += 10 * precision;
+				
+				if(action.box.letter == 'c') {
+				//	.println("aRow, aCol:" + agentRow + "," + agentCol);
+				}
+				
+				//cost += n.boxesOnWrongGoalsCount() * 1000;
+				if(action.box.letter == 'c') {
 					//		.println("BC, AB:" + distBC + "," + distAB);
-						}
-						
-						return cost;
-					}
 				}
+				
+				return cost;
 			}
 		}
 		else {
@@ -311,11 +283,23 @@ public abstract class Heuristic implements Comparator<Node> {
 		return 1000000;
 	}
 
-	public abstract int f(Node n);
+	public abstract int f(int g, int h);
+
+	/**
+	 * Evaluates the heuristic for given node exactly once and stores the resulting h and f values on the node.
+	 * @return The f value of the node.
+	 */
+	public int evaluate(Node n) {
+		this.evaluations.incrementAndGet();
+		n.h = this.h(n);
+		n.f = this.f(n.g(), n.h);
+		return n.f;
+	}
 
 	@Override
 	public int compare(Node n1, Node n2) {
-		return this.f(n1) - this.f(n2);
+		this.comparisons.incrementAndGet();
+		return Integer.compare(n1.f, n2.f);
 	}
 
 	public static class AStar extends Heuristic {
@@ -324,8 +308,8 @@ public abstract class Heuristic implements Comparator<Node> {
 		}
 
 		@Override
-		public int f(Node n) {
-			return n.g() + this.h(n);
+		public int f(int g, int h) {
+			return g + h;
 		}
 
 		@Override
@@ -343,8 +327,8 @@ public abstract class Heuristic implements Comparator<Node> {
 		}
 
 		@Override
-		public int f(Node n) {
-			return n.g() + this.W * this.h(n);
+		public int f(int g, int h) {
+			return g + this.W * h;
 		}
 
 		@Override
@@ -359,8 +343,8 @@ public abstract class Heuristic implements Comparator<Node> {
 		}
 
 		@Override
-		public int f(Node n) {
-			return this.h(n);
+		public int f(int g, int h) {
+			return h;
 		}
 
 		@Override
@@ -368,4 +352,4 @@ public abstract class Heuristic implements Comparator<Node> {
 			return "Greedy evaluation";
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,285 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Shortest path of one agent to any of a fixed set of cells, walking around walls, boxes and other agents (like
+ * BFS.agentPath), kept up to date by D* Lite. The search runs backwards from the targets, so its values stay valid
+ * when the agent moves; when boxes or agents have moved, only the values depending on the changed cells are repaired
+ * instead of searching from scratch.
+ *
+ * Cells are addressed by a flat index (see Level).
+ */
+public class IncrementalPath {
+	/**
+	 * Distance of unreachable cells; small enough for the keys to fit into a long (see key).
+	 */
+	private static final int INFINITY = 1 << 19;
+
+	private final int agent;
+	private final int rows;
+	private final int cols;
+	private final boolean[][] walls;
+
+	/**
+	 * Differences of the flat indices of the neighbours of a cell.
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Cells to reach, sorted.
+	 */
+	private final int[] targets;
+	private final boolean[] isTarget;
+
+	/**
+	 * Distances of the cells to the closest target and their one-step lookahead values (see D* Lite).
+	 */
+	private final int[] g;
+	private final int[] rhs;
+
+	/**
+	 * Key of every cell in the open list or -1 if not in it. The queue may still hold outdated entries of a cell; an
+	 * entry only counts while it matches the key stored here.
+	 */
+	private final long[] keys;
+	private final PriorityQueue<Long> open = new PriorityQueue<Long>();
+
+	/**
+	 * Cells occupied by boxes and other agents as of the last search, as a grid and as a list.
+	 */
+	private boolean[] blocked;
+	private int[] obstacles;
+
+	private int start;
+
+	/**
+	 * Sum of the heuristic values between the consecutive starts; keeps the keys in the open list valid as the agent
+	 * moves.
+	 */
+	private int km = 0;
+
+	private long expansions = 0;
+	private int searches = 0;
+
+	public IncrementalPath(Node n, int agent, int[] targets) {
+		this.agent = agent;
+		this.rows = n.rows;
+		this.cols = n.cols;
+		this.walls = n.walls;
+		this.offsets = new int[] { -cols, cols, -1, 1 };
+		this.targets = targets.clone();
+		Arrays.sort(this.targets);
+
+		int cells = rows * cols;
+		this.isTarget = new boolean[cells];
+		this.g = new int[cells];
+		this.rhs = new int[cells];
+		this.keys = new long[cells];
+		Arrays.fill(g, INFINITY);
+		Arrays.fill(rhs, INFINITY);
+		Arrays.fill(keys, -1);
+
+		this.blocked = new boolean[cells];
+		this.obstacles = new int[0];
+		this.start = n.agents[agent][0] * cols + n.agents[agent][1];
+
+		for (int target : this.targets) {
+			if (target >= 0 && target < cells && !isWall(target)) {
+				isTarget[target] = true;
+				rhs[target] = 0;
+				insert(target);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether this path leads to given cells (in any order).
+	 */
+	public boolean hasTargets(int[] targets) {
+		int[] sorted = targets.clone();
+		Arrays.sort(sorted);
+		return Arrays.equals(this.targets, sorted);
+	}
+
+	/**
+	 * Brings the search up to date with the positions of the agent, the boxes and the other agents in given node and
+	 * returns the shortest path.
+	 * @return Cells entered by the agent along the path (not including its current cell), or null if there is no path.
+	 */
+	public int[] path(Node n) {
+		int newStart = n.agents[agent][0] * cols + n.agents[agent][1];
+		if (newStart != start) {
+			km += heuristic(start, newStart);
+			start = newStart;
+		}
+		updateObstacles(n);
+		computeShortestPath();
+		searches++;
+
+		if (g[start] >= INFINITY) {
+			return null;
+		}
+		int[] path = new int[g[start]];
+		int cell = start;
+		for (int step = 0; step < path.length; step++) {
+			int best = -1;
+			for (int offset : offsets) {
+				int next = cell + offset;
+				if (isFree(next) && (best == -1 || g[next] < g[best])) {
+					best = next;
+				}
+			}
+			if (best == -1) {
+				return null;
+			}
+			path[step] = best;
+			cell = best;
+		}
+		return path;
+	}
+
+	/**
+	 * Number of cells expanded by all searches so far, including the first one.
+	 */
+	public long expansions() {
+		return expansions;
+	}
+
+	/**
+	 * Number of times path has been called.
+	 */
+	public int searches() {
+		return searches;
+	}
+
+	/**
+	 * Compares the boxes and other agents of given node with the last search and updates the cells next to every
+	 * cell that became blocked or free.
+	 */
+	private void updateObstacles(Node n) {
+		boolean[] now = new boolean[blocked.length];
+		int[] current = new int[n.boxCount() + n.agentCount];
+		int count = 0;
+		for (int id = 1; id <= n.boxCount(); id++) {
+			int cell = n.boxCell(id);
+			if (cell != -1 && !now[cell]) {
+				now[cell] = true;
+				current[count++] = cell;
+			}
+		}
+		for (int other = 0; other < n.agentCount; other++) {
+			int cell = n.agents[other][0] * cols + n.agents[other][1];
+			if (other != agent && !isWall(cell) && !now[cell]) {
+				now[cell] = true;
+				current[count++] = cell;
+			}
+		}
+
+		boolean[] before = blocked;
+		blocked = now;
+		for (int cell : obstacles) {
+			if (!now[cell]) {
+				updateNeighbours(cell);
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (!before[current[i]]) {
+				updateNeighbours(current[i]);
+			}
+		}
+		obstacles = Arrays.copyOf(current, count);
+	}
+
+	private void updateNeighbours(int cell) {
+		for (int offset : offsets) {
+			int next = cell + offset;
+			if (!isWall(next)) {
+				updateVertex(next);
+			}
+		}
+	}
+
+	private void computeShortestPath() {
+		while (!open.isEmpty()) {
+			long top = open.peek();
+			int cell = (int) (top & 0xFFFFF);
+			long key = top >>> 20;
+			if (keys[cell] != key) {
+				open.poll(); // Outdated entry
+				continue;
+			}
+			if (key >= key(start) && rhs[start] == g[start]) {
+				break;
+			}
+
+			open.poll();
+			keys[cell] = -1;
+			expansions++;
+			long newKey = key(cell);
+			if (key < newKey) {
+				insert(cell);
+			} else if (g[cell] > rhs[cell]) {
+				g[cell] = rhs[cell];
+				updateNeighbours(cell);
+			} else {
+				g[cell] = INFINITY;
+				updateVertex(cell);
+				updateNeighbours(cell);
+			}
+		}
+	}
+
+	private void updateVertex(int cell) {
+		if (!isTarget[cell]) {
+			int best = INFINITY;
+			for (int offset : offsets) {
+				int next = cell + offset;
+				if (isFree(next) && g[next] + 1 < best) {
+					best = g[next] + 1;
+				}
+			}
+			rhs[cell] = best;
+		}
+		if (g[cell] != rhs[cell]) {
+			insert(cell);
+		} else {
+			keys[cell] = -1;
+		}
+	}
+
+	/**
+	 * Adds the cell to the open list with its current key; an entry with an older key becomes outdated.
+	 */
+	private void insert(int cell) {
+		long key = key(cell);
+		keys[cell] = key;
+		open.add((key << 20) | cell);
+	}
+
+	/**
+	 * Key of the cell (see D* Lite) packed into a long: the estimate of the path through the cell in the high bits and
+	 * the distance to the targets as the tie-breaker in the low 20 bits. Entries of the open list add the cell in
+	 * another 20 bits, which limits levels to 2^20 cells.
+	 */
+	private long key(int cell) {
+		int distance = Math.min(g[cell], rhs[cell]);
+		if (distance >= INFINITY) {
+			return (long) INFINITY << 20;
+		}
+		return ((long) (distance + heuristic(cell, start) + km) << 20) | distance;
+	}
+
+	private int heuristic(int a, int b) {
+		return Math.abs(a / cols - b / cols) + Math.abs(a % cols - b % cols);
+	}
+
+	private boolean isWall(int cell) {
+		return walls[cell / cols][cell % cols];
+	}
+
+	private boolean isFree(int cell) {
+		return !isWall(cell) && !blocked[cell];
+	}
+}
@@ -0,0 +1,107 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Static layers of a level that never change during the search and are therefore shared by all nodes.
+ * Cells are addressed by a flat index (row * cols + col).
+ */
+public class Level {
+	public final int rows;
+	public final int cols;
+
+	public final boolean[][] walls;
+	public final char[][] goals;
+	public final int[][] goalIds;
+
+	/**
+	 * Cell of every goal indexed by its ID (-1 for unused IDs); goals never move, so lookups need no scan of goalIds.
+	 */
+	private final int[] goalCells;
+
+	/**
+	 * Letter (i.e. A, B, C, etc.) of every box indexed by its ID. Index 0 is unused since box IDs start at 1.
+	 */
+	public final char[] boxLetters;
+
+	/**
+	 * Random Zobrist keys for every (box ID, cell) and (agent, cell) pair. The hash of a state is the XOR of the keys
+	 * of all its boxes and agents, so moving a single object updates it in O(1).
+	 */
+	private final long[] boxKeys;
+	private final long[] agentKeys;
+
+	/**
+	 * Walls-only distances between cells, shared by all nodes (and agents) of the level.
+	 */
+	public final DistanceOracle distances;
+
+	public Level(int rows, int cols, boolean[][] walls, char[][] goals, int[][] goalIds, char[] boxLetters, int agentCount) {
+		this.rows = rows;
+		this.cols = cols;
+		this.walls = walls;
+		this.goals = goals;
+		this.goalIds = goalIds;
+		this.boxLetters = boxLetters;
+
+		int maxGoalId = 0;
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++)
+				maxGoalId = Math.max(maxGoalId, goalIds[row][col]);
+		this.goalCells = new int[maxGoalId + 1];
+		Arrays.fill(this.goalCells, -1);
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++)
+				if (goalIds[row][col] > 0)
+					this.goalCells[goalIds[row][col]] = row * cols + col;
+
+		Random rnd = new Random(1);
+		int cells = rows * cols;
+		this.boxKeys = new long[boxLetters.length * cells];
+		for (int i = 0; i < this.boxKeys.length; i++)
+			this.boxKeys[i] = rnd.nextLong();
+		this.agentKeys = new long[agentCount * cells];
+		for (int i = 0; i < this.agentKeys.length; i++)
+			this.agentKeys[i] = rnd.nextLong();
+
+		this.distances = new DistanceOracle(walls, rows, cols);
+	}
+
+	/**
+	 * Number of boxes in the level.
+	 */
+	public int boxCount() {
+		return boxLetters.length - 1;
+	}
+
+	/**
+	 * Cell of the goal with given ID or -1 if there is no such goal.
+	 */
+	public int goalCell(int goalId) {
+		return goalId > 0 && goalId < goalCells.length ? goalCells[goalId] : -1;
+	}
+
+	/**
+	 * Zobrist key of the box with given ID placed at given cell; a removed box (cell -1) contributes nothing.
+	 */
+	public long boxKey(int boxId, int cell) {
+		return cell == -1 ? 0 : this.boxKeys[boxId * rows * cols + cell];
+	}
+
+	public long agentKey(int agent, int row, int col) {
+		return this.agentKeys[agent * rows * cols + row * cols + col];
+	}
+
+	public int cellOf(int row, int col) {
+		return row * cols + col;
+	}
+
+	public int rowOf(int cell) {
+		return cell / cols;
+	}
+
+	public int colOf(int cell) {
+		return cell % cols;
+	}
+}
@@ -36,8 +36,8 @@ public class Matt {
 				if(goals[row][col] > 0){
 					levelToSearch[row][col] = goals[row][col];
 				}
-				else if(n.boxes[row][col] > 0){
-					levelToSearch[row][col] = n.boxes[row][col];
+				else if(n.boxAt(row, col)){
+					levelToSearch[row][col] = n.boxLetterAt(row, col);
 				}
 			}
 		}
@@ -8,9 +8,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
 
 import searchclient.Command.Type;
 import searchclient.ElementWithColor.Color;
@@ -22,7 +20,11 @@ import models.SatisfyGoalHLA;
 import models.StoreTempHLA;
 
 public class Node {
-	private static final Random RND = new Random(1);
+	/**
+	 * Number of expansions after which a search for a HLA gives up and takes the current node as if it were a goal
+	 * (see isGoalState).
+	 */
+	public static final int ITERATION_LIMIT = 500;
 
 	public int rows;
 	public int cols;
@@ -43,14 +45,22 @@ public class Node {
 	public boolean[][] walls;
 	
 	/**
-	 * Represents position of boxes and their "types" (i.e. A, B, C, etc.).
+	 * Static layers of the level shared by all nodes (see Level).
 	 */
-	public char[][] boxes;
+	public Level level;
 	
 	/**
-	 * Represents IDs of the boxes. The position of the ID matches position of the box type in the boxes array.
+	 * Represents positions of boxes as cells (see Level) indexed by the box ID; -1 means that the box has been removed
+	 * from this node (see relaxNode). Nodes share this array with their parent until a box moves, so it must never be
+	 * modified in place.
 	 */
-	public int[][] boxIds;
+	private int[] boxCells;
+	
+	/**
+	 * Lazily built view mapping every cell to the ID of the box in it (0 if none). Serves the grid-style accessors
+	 * (boxAt, boxIdAt, boxLetterAt) and is dropped once the node has been expanded.
+	 */
+	private int[] boxGrid;
 	
 	/**
 	 * Represents positions of goals and their "types" (i.e. a, b, c, etc.).
@@ -77,8 +87,8 @@ public class Node {
 	 * HLAs that have already been executed executed.
 	 */
 	public List<HighLevelAction> pastActions;
-	
-	public HashMap<Character, Color> colorAssignments;
+	
+	public HashMap<Character, Color> colorAssignments;
 
 	public Strategy strategy;
 	public Node parent;
@@ -89,7 +99,32 @@ public class Node {
 
 	private int g;
 	
-	private int _hash = 0;
+	/**
+	 * Heuristic value and evaluation of this node; computed once when the node enters a best-first frontier (see
+	 * Heuristic.evaluate).
+	 */
+	int h;
+	int f;
+	
+	/**
+	 * Zobrist hash of the dynamic state (agents and boxes); derived from the parent's hash when the node is created
+	 * during expansion.
+	 */
+	private long zobrist;
+	
+	/**
+	 * Perception this node was last brought up to date with and its version at the time (see updatePerception); -1
+	 * once the positions have been changed otherwise, e.g. by relaxNode.
+	 */
+	private Perception syncedPerception;
+	private int syncedVersion = -1;
+	
+	/**
+	 * Cached result of unsatisfiedGoalCount for the agent countedAgent, carried to the successors and updated as boxes
+	 * move onto or off goals; -1 if not counted yet.
+	 */
+	private int unsatisfiedGoals = -1;
+	private int countedAgent = -1;
 	
 	public void setcolormap(HashMap<Character, Color> map){
 		
@@ -102,8 +137,6 @@ public class Node {
 		this.colorAssignments = new HashMap<Character, Color>();
 		
 		this.walls = new boolean[rows][cols];
-		this.boxes = new char[rows][cols];
-		this.boxIds = new int[rows][cols];
 		this.goals = new char[rows][cols];
 		this.goalIds = new int[rows][cols];
 		this.agents = new int[agentCount][2];
@@ -122,6 +155,73 @@ public class Node {
 			this.g = parent.g() + 1;
 		}
 	}
+	
+	/**
+	 * Creates a node sharing the static layers and the box positions of the given template node.
+	 */
+	private Node(Node template, Node parent) {
+		this.parent = parent;
+		this.level = template.level;
+		this.rows = template.rows;
+		this.cols = template.cols;
+		this.agentCount = template.agentCount;
+		
+		this.colorAssignments = template.colorAssignments;
+		this.walls = template.walls;
+		this.goals = template.goals;
+		this.goalIds = template.goalIds;
+		this.action = template.action;
+		this.strategy = template.strategy;
+		this.agentNo = template.agentNo;
+		
+		this.boxCells = template.boxCells;
+		this.zobrist = template.zobrist;
+		this.unsatisfiedGoals = template.unsatisfiedGoals;
+		this.countedAgent = template.countedAgent;
+		this.agents = new int[this.agentCount][2];
+		for (int agent = 0; agent < this.agentCount; agent++) {
+			System.arraycopy(template.agents[agent], 0, this.agents[agent], 0, 2);
+		}
+		
+		if (parent == null) {
+			this.g = 0;
+		} else {
+			this.g = parent.g() + 1;
+		}
+	}
+	
+	/**
+	 * Sets the boxes of this (initial) node and creates the static layers of the level. Must be called once the walls
+	 * and goals have been read.
+	 * @param boxes Grid with box letters.
+	 * @param boxIds Grid with box IDs matching the letters in the boxes grid.
+	 */
+	public void setBoxes(char[][] boxes, int[][] boxIds) {
+		int boxCount = 0;
+		for (int row = 0; row < this.rows; row++) {
+			for (int col = 0; col < this.cols; col++) {
+				boxCount = Math.max(boxCount, boxIds[row][col]);
+			}
+		}
+		
+		char[] boxLetters = new char[boxCount + 1];
+		this.boxCells = new int[boxCount + 1];
+		Arrays.fill(this.boxCells, -1);
+		
+		for (int row = 0; row < this.rows; row++) {
+			for (int col = 0; col < this.cols; col++) {
+				int id = boxIds[row][col];
+				if (id > 0) {
+					boxLetters[id] = boxes[row][col];
+					this.boxCells[id] = row * this.cols + col;
+				}
+			}
+		}
+		
+		this.level = new Level(this.rows, this.cols, this.walls, this.goals, this.goalIds, boxLetters, this.agentCount);
+		this.boxGrid = null;
+		rehash();
+	}
 
 	public int g() {
 		return this.g;
@@ -135,7 +235,7 @@ public class Node {
 	
 	public boolean isGoalState(int iterations) { /// check if it does not crash SA levels
 		
-		if(iterations>=500) {
+		if(iterations>=ITERATION_LIMIT) {
 			
 			return true ;
 		}
@@ -145,11 +245,11 @@ public class Node {
 				int agentRow = agents[agentNo][0];
 				int agentCol = agents[agentNo][1];
 				
-				int[] boxPos = Utils.findBoxPosition(((GoToHLA) curAction).box, boxIds);
+				int boxCell = boxCells[((GoToHLA) curAction).box.id];
 				
 //				.println("AgentPos: " + agentRow + "," + agentCol);
 				
-				if(Utils.isNeighboringPosition(agentRow, agentCol, boxPos[0], boxPos[1])) {
+				if(Utils.isNeighboringPosition(agentRow, agentCol, boxCell / cols, boxCell % cols)) {
 					pastActions.add(curAction);
 					strategy.clearFrontier();
 					// .println("Reached box (" + boxes[boxPos[0]][boxPos[1]] + ")");
@@ -159,10 +259,9 @@ public class Node {
 				}
 			}
 			else if (curAction instanceof SatisfyGoalHLA) { //Maybe buggy?
-				int[] boxPos = Utils.findBoxPosition(((SatisfyGoalHLA) curAction).box, boxIds);
-				int[] goalPos = Utils.findGoalPosition(((SatisfyGoalHLA) curAction).goal, goalIds);
+				int boxCell = boxCells[((SatisfyGoalHLA) curAction).box.id];
 				
-				if(boxPos[0] == goalPos[0] && boxPos[1] == goalPos[1]) {
+				if(boxCell != -1 && boxCell == level.goalCell(((SatisfyGoalHLA) curAction).goal.id)) {
 					pastActions.add(curAction);
 					return true;
 				}
@@ -189,10 +288,10 @@ public class Node {
 //				int agentCol = agents[agentNo][1];
 				
 				StoreTempHLA sthla = (StoreTempHLA) curAction;
-				int boxPos[] = Utils.findBoxPosition(((StoreTempHLA) curAction).box, boxIds);
+				int boxCell = boxCells[sthla.box.id];
 				int[] tmpCell = sthla.cell;
 				
-				if(boxPos[0] == tmpCell[0] && boxPos[1] == tmpCell[1]) {
+				if(boxCell == tmpCell[0] * cols + tmpCell[1]) {
 					pastActions.add(curAction);
 					return true;
 				}
@@ -212,13 +311,25 @@ public class Node {
 		return false;
 	}
 	
+	/**
+	 * Number of goals of the colour of this node's agent without a matching box. Counted over the grid once and then
+	 * kept up to date by moveBox, so the heuristic gets it in O(1).
+	 */
 	public int unsatisfiedGoalCount() {
+		if (this.unsatisfiedGoals < 0 || this.countedAgent != this.agentNo) {
+			this.unsatisfiedGoals = countUnsatisfiedGoals();
+			this.countedAgent = this.agentNo;
+		}
+		return this.unsatisfiedGoals;
+	}
+	
+	private int countUnsatisfiedGoals() {
 		int goalCount = 0;
 		int satisfiedGoals = 0;
 		for (int row = 1; row < this.rows - 1; row++) {
 			for (int col = 1; col < this.cols - 1; col++) {
 				char g = goals[row][col];
-				char b = boxes[row][col];
+				char b = boxLetterAt(row, col);
 				if(g > 0 && sameColorAsAgent(agentNo, Character.toUpperCase(g))) {
 					goalCount++;
 				}
@@ -230,7 +341,7 @@ public class Node {
 		
 		return goalCount - satisfiedGoals;
 	}
-
+
 	public boolean sameColorAsAgent(int agent, char box) {
 		Color agentColor = colorAssignments.get((char) (agent  + '0'));
 		Color boxColor = colorAssignments.get(box);
@@ -241,47 +352,71 @@ public class Node {
 		ArrayList<Node> expandedNodes = new ArrayList<Node>(Command.EVERY.length);
 		
 		assignCommands(expandedNodes, agentNo);
-		
-		Collections.shuffle(expandedNodes, RND);
+		
+		// The grid view is not needed anymore once the successors have been generated
+		this.boxGrid = null;
+		
+		Collections.shuffle(expandedNodes, this.strategy.rnd);
 		return expandedNodes;
 	}
 	
+	/**
+	 * Adds the children of this node for every command applicable for given agent. Applicability is checked against
+	 * this node; a child is only created once its command is known to apply.
+	 * 
+	 * A straight push or pull inside a one-wide tunnel is followed to the end of the tunnel (see followTunnel). In
+	 * cooperative mode, commands moving the agent or a box onto a cell reserved by another agent are not applied, and
+	 * the agent may also wait (NoOp) until the reservations stop changing.
+	 * 
+	 * Boxes are not kept off dead cells either: a box can move between two cells either way as long as one of them has
+	 * another free neighbour for the agent, so with walls as the only obstacles the cells from which a box can still
+	 * reach a goal of its letter form closed components that no push or pull leaves.
+	 * 
+	 * Freeze and corral deadlocks are not checked: every push can be undone by a pull (and vice versa) of the same
+	 * agent, and the other agents do not move during the search, so a child can always return to this node and is
+	 * never deadlocked unless this node is.
+	 */
 	public void assignCommands(ArrayList<Node> expandedNodes, int agentNo){
-		for (Command c : Command.EVERY) {
-			//.println("Prev: " + this.action);
+		for (Command c : Command.EVERY) {
+			//.println("Prev: " + this.action);
 			
 			// Determine applicability of action
 			int newAgentRow = this.agents[agentNo][0] + Command.dirToRowChange(c.dir1);
 			int newAgentCol = this.agents[agentNo][1] + Command.dirToColChange(c.dir1);
 			
-			Node n = this.ChildNode();
-			
 			if (c.actionType == Type.Move) {
 				// Check if there's a wall or box on the cell to which the agent is moving
 				if (this.cellIsFree(agentNo, newAgentRow, newAgentCol)) {
+					if (!this.isUnreserved(newAgentRow * this.cols + newAgentCol, -1)) {
+						continue;
+					}
+					Node n = this.ChildNode();
 					n.action = c;
-					n.agents[agentNo][0] = newAgentRow;
-					n.agents[agentNo][1] = newAgentCol;
+					n.moveAgent(agentNo, newAgentRow, newAgentCol);
 					expandedNodes.add(n);
 				}
 			} else if (c.actionType == Type.Push) {
 				
 				// Make sure that there's actually a box to move
-				if (this.boxAt(newAgentRow, newAgentCol) && sameColorAsAgent(agentNo, this.boxes[newAgentRow][newAgentCol])) {
-
+				int boxId = this.boxIdAt(newAgentRow, newAgentCol);
+				if (boxId > 0 && sameColorAsAgent(agentNo, this.level.boxLetters[boxId])) {
+
 					int newBoxRow = newAgentRow + Command.dirToRowChange(c.dir2);
 					int newBoxCol = newAgentCol + Command.dirToColChange(c.dir2);
 					
 					// .. and that new cell of box is free
 					
 					if (this.cellIsFree(agentNo, newBoxRow, newBoxCol)) {
+						if (!this.isUnreserved(newAgentRow * this.cols + newAgentCol, newBoxRow * this.cols + newBoxCol)) {
+							continue;
+						}
+						Node n = this.ChildNode();
 						n.action = c;
-						n.agents[agentNo][0] = newAgentRow;
-						n.agents[agentNo][1] = newAgentCol;
-						n.boxIds[newBoxRow][newBoxCol] = this.boxIds[newAgentRow][newAgentCol];
-						n.boxes[newBoxRow][newBoxCol] = this.boxes[newAgentRow][newAgentCol];
-						n.boxIds[newAgentRow][newAgentCol] = 0;
-						n.boxes[newAgentRow][newAgentCol] = 0;
+						n.moveAgent(agentNo, newAgentRow, newAgentCol);
+						n.moveBox(boxId, newBoxRow * this.cols + newBoxCol);
+						if (c.dir1 == c.dir2) {
+							n = this.followTunnel(n, c, agentNo, boxId);
+						}
 						
 						expandedNodes.add(n);
 					}
@@ -292,25 +427,121 @@ public class Node {
 					int boxRow = this.agents[agentNo][0] + Command.dirToRowChange(c.dir2);
 					int boxCol = this.agents[agentNo][1] + Command.dirToColChange(c.dir2);
 					// .. and there's a box in "dir2" of the agent
-					if (this.boxAt(boxRow, boxCol) && sameColorAsAgent(agentNo, this.boxes[boxRow][boxCol])) {
+					int boxId = this.boxIdAt(boxRow, boxCol);
+					if (boxId > 0 && sameColorAsAgent(agentNo, this.level.boxLetters[boxId])) {
+						if (!this.isUnreserved(newAgentRow * this.cols + newAgentCol, this.agents[agentNo][0] * this.cols + this.agents[agentNo][1])) {
+							continue;
+						}
+						Node n = this.ChildNode();
 						n.action = c;
-						n.agents[agentNo][0] = newAgentRow;
-						n.agents[agentNo][1] = newAgentCol;
-						n.boxIds[this.agents[agentNo][0]][this.agents[agentNo][1]] = this.boxIds[boxRow][boxCol];
-						n.boxes[this.agents[agentNo][0]][this.agents[agentNo][1]] = this.boxes[boxRow][boxCol];
-						n.boxIds[boxRow][boxCol] = 0;
-						n.boxes[boxRow][boxCol] = 0;
+						n.moveAgent(agentNo, newAgentRow, newAgentCol);
+						n.moveBox(boxId, this.agents[agentNo][0] * this.cols + this.agents[agentNo][1]);
+						if (Command.isOpposite(c.dir1, c.dir2)) {
+							n = this.followTunnel(n, c, agentNo, boxId);
+						}
 						
 						expandedNodes.add(n);
 					}
 				}
 			}
 		}
+		
+		// Waiting only helps while the reservations still change
+		ReservationTable reservations = this.strategy.reservations;
+		if (reservations != null && this.g() - reservations.startG < reservations.horizon()
+				&& this.isUnreserved(this.agents[agentNo][0] * this.cols + this.agents[agentNo][1], -1)) {
+			Node n = this.ChildNode();
+			n.action = Command.NOOP;
+			expandedNodes.add(n);
+		}
 	}
 
+	/**
+	 * Macro-move for tunnels. Once the agent and the box it pushes or pulls straight are both inside a one-wide tunnel,
+	 * the box can only block the tunnel wherever it is left inside it, so parking it mid-tunnel is never needed unless it
+	 * stands on a goal or on the cell of the HLA. The command is therefore repeated until the pair leaves the tunnel,
+	 * the box reaches such a cell, or the way ahead is blocked. The intermediate nodes stay in the parent chain, so the extracted plan still lists every primitive
+	 * command. Only done for HLAs that move boxes; the targets of GoTo and GiveWay are cells of the agent.
+	 * @param n Child of this node in which the agent applied given command to given box.
+	 * @return Last node of the macro-move (n itself if the pair is not in a tunnel).
+	 */
+	private Node followTunnel(Node n, Command c, int agentNo, int boxId) {
+		int targetCell;
+		if (this.curAction instanceof SatisfyGoalHLA) {
+			targetCell = -1;
+		} else if (this.curAction instanceof StoreTempHLA) {
+			int[] cell = ((StoreTempHLA) this.curAction).cell;
+			targetCell = cell[0] * this.cols + cell[1];
+		} else {
+			return n;
+		}
+		
+		boolean push = c.actionType == Type.Push;
+		int dRow = Command.dirToRowChange(c.dir1);
+		int dCol = Command.dirToColChange(c.dir1);
+		
+		while (true) {
+			int agentRow = n.agents[agentNo][0];
+			int agentCol = n.agents[agentNo][1];
+			int boxCell = n.boxCells[boxId];
+			int boxRow = boxCell / this.cols;
+			int boxCol = boxCell % this.cols;
+			
+			if (!this.inTunnel(agentRow, agentCol, dRow) || !this.inTunnel(boxRow, boxCol, dRow)) {
+				return n;
+			}
+			if (this.goals[boxRow][boxCol] > 0 || boxCell == targetCell) {
+				return n;
+			}
+			
+			// The box leads a push and the agent leads a pull; the cells ahead were not touched by the macro yet, so
+			// they can be checked on this node
+			int aheadRow = (push ? boxRow : agentRow) + dRow;
+			int aheadCol = (push ? boxCol : agentCol) + dCol;
+			if (!this.cellIsFree(agentNo, aheadRow, aheadCol)) {
+				return n;
+			}
+			
+			int nextAgentCell = (agentRow + dRow) * this.cols + agentCol + dCol;
+			int nextBoxCell = push ? aheadRow * this.cols + aheadCol : agentRow * this.cols + agentCol;
+			if (!n.isUnreserved(nextAgentCell, nextBoxCell)) {
+				return n;
+			}
+			
+			Node next = n.ChildNode();
+			next.action = c;
+			next.moveAgent(agentNo, agentRow + dRow, agentCol + dCol);
+			next.moveBox(boxId, nextBoxCell);
+			n = next;
+		}
+	}
+	
+	/**
+	 * Checks whether given cell is enclosed by walls on both sides across the direction of movement.
+	 */
+	private boolean inTunnel(int row, int col, int dRow) {
+		if (dRow != 0) {
+			return this.walls[row][col - 1] && this.walls[row][col + 1];
+		}
+		return this.walls[row - 1][col] && this.walls[row + 1][col];
+	}
+	
+	/**
+	 * Checks whether the cells entered by the agent and by the moved box (-1 if none) in a child of this node are
+	 * free of reservations of other agents (see Strategy.reservations).
+	 */
+	private boolean isUnreserved(int agentCell, int boxCell) {
+		ReservationTable reservations = this.strategy.reservations;
+		if (reservations == null) {
+			return true;
+		}
+		int time = this.g() + 1 - reservations.startG;
+		return reservations.isFree(agentCell, time) && (boxCell == -1 || reservations.isFree(boxCell, time));
+	}
+	
 	private boolean cellIsFree(int agentNo, int row, int col) {
 		
-		return !this.walls[row][col] && this.boxes[row][col] == 0 && !agentAt(row, col) ;
+		return !this.walls[row][col] && !boxAt(row, col) && !agentAt(row, col) ;
 	}
 	
 	public boolean agentAt(int row, int col) {
@@ -321,85 +552,238 @@ public class Node {
 		return false;
 	}
 
-	private boolean boxAt(int row, int col) {
-		return this.boxes[row][col] > 0;
+	public boolean boxAt(int row, int col) {
+		return boxGrid()[row * this.cols + col] > 0;
 	}
-
-	private Node ChildNode() {
 	
-		Node copy = new Node(this, this.rows, this.cols, this.agentCount);
+	/**
+	 * Returns the ID of the box at given position or 0 if there is no box.
+	 */
+	public int boxIdAt(int row, int col) {
+		return boxGrid()[row * this.cols + col];
+	}
+	
+	/**
+	 * Returns the letter of the box at given position or 0 if there is no box.
+	 */
+	public char boxLetterAt(int row, int col) {
+		int id = boxGrid()[row * this.cols + col];
+		return id > 0 ? this.level.boxLetters[id] : 0;
+	}
+	
+	/**
+	 * Returns the cell (see Level) of the box with given ID or -1 if the box is not present in this node.
+	 */
+	public int boxCell(int boxId) {
+		return this.boxCells[boxId];
+	}
+	
+	/**
+	 * Returns the position of the box with given ID as [row, col] or null if the box is not present in this node.
+	 */
+	public int[] boxPosition(int boxId) {
+		int cell = this.boxCells[boxId];
+		if (cell == -1)
+			return null;
 		
-		copy.colorAssignments = this.colorAssignments;
-		copy.walls = this.walls;
-		copy.goals = this.goals;
-		copy.goalIds = this.goalIds;
-		copy.action = this.action;
-		copy.strategy = this.strategy;
-		copy.agentNo = this.agentNo;
+		return new int[] { cell / this.cols, cell % this.cols };
+	}
+	
+	public int boxCount() {
+		return this.boxCells.length - 1;
+	}
+	
+	/**
+	 * Position (row, column) of the goal with given ID or null if there is no such goal (see Level.goalCell).
+	 */
+	public int[] goalPosition(int goalId) {
+		int cell = this.level.goalCell(goalId);
+		if (cell == -1)
+			return null;
 		
-		copy.plannedActions = this.plannedActions;
-		copy.curAction = this.curAction;
-		copy.pastActions = this.pastActions;
+		return new int[] { cell / this.cols, cell % this.cols };
+	}
+	
+	/**
+	 * Removes the box with given ID from this node.
+	 */
+	public void removeBox(int boxId) {
+		moveBox(boxId, -1);
+	}
+	
+	private void moveBox(int boxId, int cell) {
+		this.syncedVersion = -1;
+		this.zobrist ^= this.level.boxKey(boxId, this.boxCells[boxId]) ^ this.level.boxKey(boxId, cell);
 		
-		for (int row = 0; row < this.rows; row++) {
-			System.arraycopy(this.boxes[row], 0, copy.boxes[row], 0, this.cols);
-			System.arraycopy(this.boxIds[row], 0, copy.boxIds[row], 0, this.cols);
+		countGoalChange(boxId, this.boxCells[boxId], cell);
+		
+		// Copy on write since the array may be shared with the parent
+		this.boxCells = this.boxCells.clone();
+		this.boxCells[boxId] = cell;
+		this.boxGrid = null;
+	}
+	
+	/**
+	 * Updates the cached unsatisfied goal count for the box with given ID moving between given cells (-1 if removed).
+	 */
+	private void countGoalChange(int boxId, int from, int to) {
+		if (this.unsatisfiedGoals < 0) {
+			return;
+		}
+		char letter = this.level.boxLetters[boxId];
+		char goal = Character.toLowerCase(letter);
+		boolean leaves = from != -1 && this.goals[from / this.cols][from % this.cols] == goal;
+		boolean enters = to != -1 && this.goals[to / this.cols][to % this.cols] == goal;
+		if (leaves != enters && sameColorAsAgent(this.countedAgent, letter)) {
+			this.unsatisfiedGoals += leaves ? 1 : -1;
 		}
+	}
+	
+	private void moveAgent(int agent, int row, int col) {
+		this.syncedVersion = -1;
+		this.zobrist ^= this.level.agentKey(agent, this.agents[agent][0], this.agents[agent][1]) ^ this.level.agentKey(agent, row, col);
+		
+		this.agents[agent][0] = row;
+		this.agents[agent][1] = col;
+	}
+	
+	/**
+	 * Moves all agents but this node's agent out of the level (to the wall cell at (0, 0)) so that they are not
+	 * considered as obstacles.
+	 */
+	public void removeOtherAgents() {
 		for (int agent = 0; agent < this.agentCount; agent++) {
-			System.arraycopy(this.agents[agent], 0, copy.agents[agent], 0, 2);
+			if (agent != this.agentNo)
+				moveAgent(agent, 0, 0);
+		}
+	}
+	
+	/**
+	 * Recomputes the Zobrist hash from scratch; needed after the state has been replaced as a whole.
+	 */
+	private void rehash() {
+		long hash = 0;
+		for (int id = 1; id < this.boxCells.length; id++)
+			hash ^= this.level.boxKey(id, this.boxCells[id]);
+		for (int agent = 0; agent < this.agentCount; agent++)
+			hash ^= this.level.agentKey(agent, this.agents[agent][0], this.agents[agent][1]);
+		this.zobrist = hash;
+	}
+	
+	/**
+	 * Hash of the state for the explored sets. While the strategy has reservations the search is a space-time search,
+	 * so the time of the node (see reservationTime) is part of the state.
+	 */
+	public long zobristHash() {
+		int time = this.reservationTime();
+		return time < 0 ? this.zobrist : this.zobrist ^ (time + 1) * 0x9E3779B97F4A7C15L;
+	}
+	
+	/**
+	 * Time of this node in the reservations of its strategy, capped at their horizon since nothing changes afterwards;
+	 * -1 without reservations.
+	 */
+	private int reservationTime() {
+		ReservationTable reservations = this.strategy == null ? null : this.strategy.reservations;
+		if (reservations == null) {
+			return -1;
 		}
+		return Math.min(this.g() - reservations.startG, reservations.horizon());
+	}
+	
+	private int[] boxGrid() {
+		int[] grid = this.boxGrid;
+		if (grid == null) {
+			grid = new int[this.rows * this.cols];
+			for (int id = 1; id < this.boxCells.length; id++) {
+				if (this.boxCells[id] != -1)
+					grid[this.boxCells[id]] = id;
+			}
+			this.boxGrid = grid;
+		}
+		return grid;
+	}
+
+	/**
+	 * Child of this node in which the searching agent applied given command moving the given box (0 if none) to the
+	 * given cell; the command is not checked for applicability (see DeltaNode).
+	 */
+	Node deltaChild(Command c, int boxId, int boxCell) {
+		Node n = this.ChildNode();
+		n.action = c;
+		if (c.actionType != Type.NoOp) {
+			n.moveAgent(this.agentNo, this.agents[this.agentNo][0] + Command.dirToRowChange(c.dir1), this.agents[this.agentNo][1] + Command.dirToColChange(c.dir1));
+		}
+		if (boxId > 0) {
+			n.moveBox(boxId, boxCell);
+		}
+		return n;
+	}
+	
+	/**
+	 * Cell the action of this node moved a box to or -1 if it did not move a box. Derived from the command rather than
+	 * from the box positions, since relaxNode may have removed boxes from this node after it was created.
+	 */
+	int movedBoxCell() {
+		if (this.parent == null || this.action == null) {
+			return -1;
+		}
+		int agentRow = this.agents[this.agentNo][0];
+		int agentCol = this.agents[this.agentNo][1];
+		switch (this.action.actionType) {
+			case Push:
+				return (agentRow + Command.dirToRowChange(this.action.dir2)) * this.cols + agentCol + Command.dirToColChange(this.action.dir2);
+			case Pull:
+				// The box follows into the cell the agent has left
+				return (agentRow - Command.dirToRowChange(this.action.dir1)) * this.cols + agentCol - Command.dirToColChange(this.action.dir1);
+			default:
+				return -1;
+		}
+	}
+	
+	/**
+	 * ID of the box whose position differs from the one in the parent or 0 if the action did not move a box.
+	 */
+	int movedBox() {
+		if (this.parent == null || this.boxCells == this.parent.boxCells) {
+			return 0;
+		}
+		for (int id = 1; id < this.boxCells.length; id++) {
+			if (this.boxCells[id] != this.parent.boxCells[id]) {
+				return id;
+			}
+		}
+		return 0;
+	}
+	
+	private Node ChildNode() {
+		Node copy = new Node(this, this);
+		
+		copy.plannedActions = this.plannedActions;
+		copy.curAction = this.curAction;
+		copy.pastActions = this.pastActions;
 		
 		return copy;
 	}
 	
 	public Node copyOfNode() {
-		Node copy = new Node(null, this.rows, this.cols, this.agentCount);
-		
-		copy.colorAssignments = this.colorAssignments;
-		copy.walls = this.walls;
-		copy.goals = this.goals;
-		copy.goalIds = this.goalIds;
-		copy.action = this.action;
-		copy.strategy = this.strategy;
-		copy.agentNo = this.agentNo;
+		Node copy = new Node(this, null);
 		
-		//copy.agentsActions = this.agentsActions;
-		
-		for (int row = 0; row < this.rows; row++) {
-			System.arraycopy(this.boxes[row], 0, copy.boxes[row], 0, this.cols);
-			System.arraycopy(this.boxIds[row], 0, copy.boxIds[row], 0, this.cols);
-		}
-		for (int agent = 0; agent < this.agentCount; agent++) {
-			System.arraycopy(this.agents[agent], 0, copy.agents[agent], 0, 2);
-		}
+		copy.plannedActions = new ArrayList<HighLevelAction>();
+		copy.curAction = null;
+		copy.pastActions = new ArrayList<HighLevelAction>();
 		
 		return copy;
 	}
 
-	public LinkedList<Node> extractPlan() {
-		LinkedList<Node> plan = new LinkedList<Node>();
-		Node n = this;
-		while (!n.isInitialState()) {
-			plan.addFirst(n);
-			n = n.parent;
-		}
-		return plan;
+	public Plan extractPlan() {
+		return Plan.of(this);
 	}
 
 	@Override
 	public int hashCode() {
-		if (this._hash == 0) {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + Arrays.deepHashCode(this.agents);
-			result = prime * result + Arrays.deepHashCode(this.boxes);
-			result = prime * result + Arrays.deepHashCode(this.boxIds);
-			result = prime * result + Arrays.deepHashCode(this.goals);
-			result = prime * result + Arrays.deepHashCode(this.goalIds);
-			result = prime * result + Arrays.deepHashCode(this.walls);
-			this._hash = result;
-		}
-		return this._hash;
+		long hash = this.zobristHash();
+		return (int) (hash ^ (hash >>> 32));
 	}
 
 	@Override
@@ -411,13 +795,12 @@ public class Node {
 		if (this.getClass() != obj.getClass())
 			return false;
 		Node other = (Node) obj;
-		if (!Arrays.deepEquals(this.agents, other.agents))
-			return false;
-		if (!Arrays.deepEquals(this.boxes, other.boxes))
+		// Static layers (walls, goals) are shared by all nodes of a level and therefore not compared
+		if (this.zobrist != other.zobrist || this.reservationTime() != other.reservationTime())
 			return false;
-		if (!Arrays.deepEquals(this.goals, other.goals))
+		if (!Arrays.deepEquals(this.agents, other.agents))
 			return false;
-		if (!Arrays.deepEquals(this.walls, other.walls))
+		if (!Arrays.equals(this.boxCells, other.boxCells))
 			return false;
 		return true;
 	}
@@ -433,10 +816,7 @@ public class Node {
 				
 				// .println("Checking HLA :" + act.toString());
 				
-				int[] goalPos = Utils.findGoalPosition(act.goal, goalIds);
-				int[] boxPos = Utils.findBoxPosition(act.box, boxIds);
-
-				if (goalPos[0] != boxPos[0] || goalPos[1] != boxPos[1]) {
+				if (boxCells[act.box.id] != level.goalCell(act.goal.id)) {
 				// 	.println("Broken HLA detected!");
 					
 					plannedActions.add(new GoToHLA(act.box));
@@ -455,9 +835,11 @@ public class Node {
 	 */
 	public int boxesOnWrongGoalsCount() {
 		int count = 0;
-		for (int i = 0; i < boxes.length; i++) {
-			for (int j = 0; j < boxes[i].length; j++) {
-				if (boxIds[i][j] != 0 && goalIds[i][j] != 0 && boxIds[i][j] != goalIds[i][j]) {
+		for (int id = 1; id < boxCells.length; id++) {
+			int cell = boxCells[id];
+			if (cell != -1) {
+				int goalId = goalIds[cell / cols][cell % cols];
+				if (goalId != 0 && goalId != id) {
 					count++;
 				}
 			}
@@ -469,12 +851,9 @@ public class Node {
 	 * Removes boxes that are of other colour than the agent.
 	 */
 	public void relaxNode() { /// remove all the boxes that have different color
-		for(int row = 0; row < rows; row++) {
-			for(int col = 0; col < cols; col++) {
-				char boxChar = this.boxes[row][col];
-				if(boxChar > 0 && !sameColorAsAgent(this.agentNo, boxChar)) {
-					this.boxes[row][col] = 0;
-				}
+		for(int id = 1; id < boxCells.length; id++) {
+			if(boxCells[id] != -1 && !sameColorAsAgent(this.agentNo, level.boxLetters[id])) {
+				removeBox(id);
 			}
 		}
 		
@@ -494,14 +873,55 @@ public class Node {
 		}
 	}
 
+	/**
+	 * Brings the boxes and agents of this node up to date with the Perception. A node that was synced before and not
+	 * changed since only replays the changes made to the Perception in the meantime; otherwise the whole grid is read.
+	 */
 	public void updatePerception(Perception p) {
-		for (int row = 0; row < this.rows; row++) {
-			System.arraycopy(p.boxes[row], 0, this.boxes[row], 0, this.cols);
-			System.arraycopy(p.boxIds[row], 0, this.boxIds[row], 0, this.cols);
+		if (this.syncedPerception == p && this.syncedVersion >= 0) {
+			applyChanges(p);
+		} else {
+			readPerception(p);
 		}
+		this.syncedPerception = p;
+		this.syncedVersion = p.version();
+	}
+	
+	private void applyChanges(Perception p) {
+		int[] cells = null;
+		for (int entry = this.syncedVersion; entry < p.version(); entry++) {
+			int object = p.changedObject(entry);
+			int cell = p.changedCell(entry);
+			if (object > 0) {
+				if (cells == null) {
+					// Copy on write since the array may be shared with nodes of past searches
+					cells = this.boxCells.clone();
+				}
+				this.zobrist ^= this.level.boxKey(object, cells[object]) ^ this.level.boxKey(object, cell);
+				countGoalChange(object, cells[object], cell);
+				cells[object] = cell;
+			} else {
+				int agent = -1 - object;
+				this.zobrist ^= this.level.agentKey(agent, this.agents[agent][0], this.agents[agent][1]) ^ this.level.agentKey(agent, cell / this.cols, cell % this.cols);
+				this.agents[agent][0] = cell / this.cols;
+				this.agents[agent][1] = cell % this.cols;
+			}
+		}
+		if (cells != null) {
+			this.boxCells = cells;
+			this.boxGrid = null;
+		}
+	}
+	
+	private void readPerception(Perception p) {
+		this.boxCells = p.boxCells();
+		this.unsatisfiedGoals = -1;
+		this.boxGrid = null;
+		
 		for (int agent = 0; agent < this.agentCount; agent++) {
 			System.arraycopy(p.agents[agent], 0, this.agents[agent], 0, 2);
 		}
+		rehash();
 	}
 	
 	@Override
@@ -513,8 +933,8 @@ public class Node {
 			}
 			colLoop:
 			for (int col = 0; col < this.cols; col++) {
-				if (this.boxes[row][col] > 0) {
-					s.append(this.boxes[row][col]);
+				if (this.boxAt(row, col)) {
+					s.append(this.boxLetterAt(row, col));
 				} else if (this.goals[row][col] > 0) {
 					s.append(this.goals[row][col]);
 				} else if (this.walls[row][col]) {
@@ -537,4 +957,4 @@ public class Node {
 		return s.toString();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,199 @@
+package searchclient;
+
+import java.util.Arrays;
+
+/**
+ * Low level plan of one agent as produced by a search: the command of every step (as its index in Command.EVERY) and
+ * the cells (see Level) of the agent and of the moved box after the step. Unlike the chain of nodes it is extracted
+ * from, a plan does not keep the states of the search alive.
+ *
+ * Steps are executed from the head; removeFirst only moves the head, so every step stays accessible in O(1).
+ */
+public class Plan {
+	private static final byte[] NO_COMMANDS = new byte[0];
+	private static final int[] NO_CELLS = new int[0];
+
+	/**
+	 * Ordinals of the Move commands indexed by the ordinal of their direction.
+	 */
+	private static final byte[] MOVES = new byte[Command.Dir.values().length];
+	static {
+		for (Command c : Command.EVERY) {
+			if (c.actionType == Command.Type.Move) {
+				MOVES[c.dir1.ordinal()] = (byte) c.ordinal;
+			}
+		}
+	}
+
+	public final int agentNo;
+	private final int cols;
+
+	private final byte[] commands;
+	private final int[] agentCells;
+
+	/**
+	 * Cell of the box moved by the step or -1 for Move commands, and the ID of that box (0 for Move commands).
+	 */
+	private final int[] boxCells;
+	private final int[] boxIds;
+
+	private int head = 0;
+
+	/**
+	 * Empty plan of given agent.
+	 */
+	public Plan(int agentNo) {
+		this(agentNo, 0, NO_COMMANDS, NO_CELLS, NO_CELLS, NO_CELLS);
+	}
+
+	private Plan(int agentNo, int cols, byte[] commands, int[] agentCells, int[] boxCells, int[] boxIds) {
+		this.agentNo = agentNo;
+		this.cols = cols;
+		this.commands = commands;
+		this.agentCells = agentCells;
+		this.boxCells = boxCells;
+		this.boxIds = boxIds;
+	}
+
+	/**
+	 * Extracts the plan leading from the initial state of the search to given node.
+	 */
+	public static Plan of(Node leaf) {
+		int length = 0;
+		for (Node n = leaf; !n.isInitialState(); n = n.parent) {
+			length++;
+		}
+
+		byte[] commands = new byte[length];
+		int[] agentCells = new int[length];
+		int[] boxCells = new int[length];
+		int[] boxIds = new int[length];
+
+		int agentNo = leaf.agentNo;
+		Node n = leaf;
+		for (int step = length - 1; step >= 0; step--) {
+			commands[step] = (byte) n.action.ordinal;
+			agentCells[step] = n.agents[agentNo][0] * n.cols + n.agents[agentNo][1];
+			boxCells[step] = n.movedBoxCell();
+			if (boxCells[step] != -1) {
+				for (int id = 1; id <= n.boxCount(); id++) {
+					if (n.boxCell(id) == boxCells[step]) {
+						boxIds[step] = id;
+						break;
+					}
+				}
+			}
+			n = n.parent;
+		}
+
+		return new Plan(agentNo, leaf.cols, commands, agentCells, boxCells, boxIds);
+	}
+
+	/**
+	 * Plan of an agent that only walks along given path.
+	 * @param start Cell of the agent before the first step.
+	 * @param path Cells of the agent after every step (see BFS.agentPath); the agent waits where a cell repeats.
+	 */
+	public static Plan ofMoves(int agentNo, int cols, int start, int[] path) {
+		byte[] commands = new byte[path.length];
+		int[] boxCells = new int[path.length];
+		int prev = start;
+		for (int step = 0; step < path.length; step++) {
+			int delta = path[step] - prev;
+			if (delta == 0) {
+				commands[step] = (byte) Command.NOOP.ordinal;
+			} else {
+				Command.Dir dir = delta == -cols ? Command.Dir.N : delta == cols ? Command.Dir.S : delta == -1 ? Command.Dir.W : Command.Dir.E;
+				commands[step] = MOVES[dir.ordinal()];
+			}
+			boxCells[step] = -1;
+			prev = path[step];
+		}
+		return new Plan(agentNo, cols, commands, path, boxCells, new int[path.length]);
+	}
+
+	public int size() {
+		return commands.length - head;
+	}
+
+	public boolean isEmpty() {
+		return head == commands.length;
+	}
+
+	/**
+	 * Drops the remaining steps.
+	 */
+	public void clear() {
+		head = commands.length;
+	}
+
+	/**
+	 * Drops the first remaining step (i.e. the step that has just been executed).
+	 */
+	public void removeFirst() {
+		if (head < commands.length)
+			head++;
+	}
+
+	/**
+	 * Command of given step; steps are counted from the first remaining one.
+	 */
+	public Command command(int step) {
+		return Command.byOrdinal(commands[head + step]);
+	}
+
+	public int agentCell(int step) {
+		return agentCells[head + step];
+	}
+
+	public int agentRow(int step) {
+		return agentCells[head + step] / cols;
+	}
+
+	public int agentCol(int step) {
+		return agentCells[head + step] % cols;
+	}
+
+	public int boxCell(int step) {
+		return boxCells[head + step];
+	}
+
+	/**
+	 * Cells of the boxes moved by the remaining steps as they stand after every step: a box keeps occupying the cell it
+	 * was moved to, also while the agent walks around it, until it is moved again. Element [step] lists each box moved
+	 * by the steps up to and including that step once.
+	 */
+	public int[][] movedBoxCells() {
+		int size = size();
+		int[][] cells = new int[size][];
+		int[] ids = new int[size];
+		int[] current = new int[size];
+		int moved = 0;
+		for (int step = 0; step < size; step++) {
+			int id = boxIds[head + step];
+			if (id > 0) {
+				int i = 0;
+				while (i < moved && ids[i] != id) {
+					i++;
+				}
+				if (i == moved) {
+					ids[moved++] = id;
+				}
+				current[i] = boxCells[head + step];
+			}
+			cells[step] = id == 0 && step > 0 ? cells[step - 1] : Arrays.copyOf(current, moved);
+		}
+		return cells;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("[");
+		for (int step = 0; step < size(); step++) {
+			if (step > 0)
+				s.append(", ");
+			s.append(command(step));
+		}
+		return s.append(']').toString();
+	}
+}
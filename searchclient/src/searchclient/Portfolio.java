@@ -0,0 +1,209 @@
+package searchclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import models.HighLevelAction;
+import searchclient.SearchClient.StrategyType;
+
+/**
+ * Races several search strategies on the same HLA of an agent. The first strategy that reaches the goal of the HLA
+ * wins and the others are cancelled (see Strategy.cancel). Every agent owns one strategy of every type, so races of
+ * different agents may run at the same time.
+ */
+public class Portfolio {
+	/**
+	 * Strategies raced against each other; also the order in which plans cut off by the iteration limit of the
+	 * search (see Node.isGoalState) are preferred when no strategy reaches the goal.
+	 */
+	public static final StrategyType[] TYPES = { StrategyType.bfs, StrategyType.greedy, StrategyType.wastar, StrategyType.astar };
+
+	private final SearchClient client;
+
+	/**
+	 * Strategies of every agent indexed by the agent and the position of the type in TYPES.
+	 */
+	private final Strategy[][] members;
+
+	/**
+	 * Number of races won by every type (indexed as TYPES) per kind of HLA.
+	 */
+	private final HashMap<String, int[]> wins = new HashMap<String, int[]>();
+
+	private ExecutorService pool;
+
+	public Portfolio(SearchClient client, int agentCount) {
+		this.client = client;
+		this.members = new Strategy[agentCount][TYPES.length];
+		for (int agentNo = 0; agentNo < agentCount; agentNo++) {
+			for (int i = 0; i < TYPES.length; i++) {
+				this.members[agentNo][i] = client.createStrategy(TYPES[i], client);
+			}
+		}
+	}
+
+	/**
+	 * Searches for a plan of the current HLA of the given origin node with all strategies of the agent at once. Every
+	 * strategy starts from its own copy of the origin node; the HLA bookkeeping of the winner (i.e. the satisfied HLA)
+	 * is copied back to the origin node.
+	 * @return Plan of the winner or null if no strategy found a plan.
+	 */
+	public Plan race(Node origin, int agentNo) {
+		CompletionService<Result> race = new ExecutorCompletionService<Result>(pool());
+		List<Future<Result>> runs = new ArrayList<Future<Result>>(TYPES.length);
+		for (int i = 0; i < TYPES.length; i++) {
+			runs.add(race.submit(new Run(origin, agentNo, i)));
+		}
+
+		Result winner = null;
+		Result[] results = new Result[TYPES.length];
+		try {
+			for (int finished = 0; finished < TYPES.length && winner == null; finished++) {
+				Result result = race.take().get();
+				results[result.member] = result;
+				if (result.reachedGoal) {
+					winner = result;
+				}
+			}
+
+			for (Strategy strategy : members[agentNo]) {
+				strategy.cancel();
+			}
+			// Cancelled strategies stop within one expansion; wait for them so that they can be reused for the next HLA
+			for (Future<Result> run : runs) {
+				run.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			for (Strategy strategy : members[agentNo]) {
+				strategy.clearFrontier();
+				strategy.clearCancelled();
+			}
+		}
+
+		if (winner == null) {
+			// Nobody reached the goal; fall back to the first plan cut off by the iteration limit, if any
+			for (Result result : results) {
+				if (result != null && result.plan != null) {
+					winner = result;
+					break;
+				}
+			}
+			if (winner == null) {
+				return null;
+			}
+		}
+
+		origin.pastActions.addAll(winner.pastActions);
+		recordWin(origin.curAction.getClass().getSimpleName(), agentNo, winner);
+
+		return winner.plan;
+	}
+
+	private void recordWin(String hla, int agentNo, Result winner) {
+		synchronized (wins) {
+			int[] counts = wins.get(hla);
+			if (counts == null) {
+				counts = new int[TYPES.length];
+				wins.put(hla, counts);
+			}
+			if (winner.reachedGoal) {
+				counts[winner.member]++;
+			}
+			if (!SearchClient.printStats) {
+				return;
+			}
+
+			StringBuilder s = new StringBuilder();
+			s.append("Portfolio: agent ").append(agentNo).append(", ").append(hla).append(winner.reachedGoal ? " won by " : " cut off, using ")
+					.append(TYPES[winner.member]).append(String.format(" in %.2f s (wins:", winner.time));
+			for (int i = 0; i < TYPES.length; i++) {
+				s.append(' ').append(TYPES[i]).append(' ').append(counts[i]);
+			}
+			System.err.println(s.append(')'));
+		}
+	}
+
+	private ExecutorService pool() {
+		if (pool == null) {
+			// Not bounded by SearchClient.planningThreads: races are submitted from the planning pool itself, and every
+			// race needs all of its strategies running to be decided
+			pool = Executors.newCachedThreadPool(new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "portfolio-" + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	private static class Result {
+		final int member;
+		final Plan plan;
+		final boolean reachedGoal;
+		final List<HighLevelAction> pastActions;
+		final float time;
+
+		Result(int member, Plan plan, boolean reachedGoal, List<HighLevelAction> pastActions, float time) {
+			this.member = member;
+			this.plan = plan;
+			this.reachedGoal = reachedGoal;
+			this.pastActions = pastActions;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Search of one strategy of the race.
+	 */
+	private class Run implements Callable<Result> {
+		private final Node origin;
+		private final int agentNo;
+		private final int member;
+
+		Run(Node origin, int agentNo, int member) {
+			this.origin = origin;
+			this.agentNo = agentNo;
+			this.member = member;
+		}
+
+		@Override
+		public Result call() {
+			long start = System.currentTimeMillis();
+			Strategy strategy = members[agentNo][member];
+
+			// The search adds the HLA to pastActions once its goal is reached, so every strategy gets its own list
+			Node root = origin.copyOfNode();
+			root.strategy = strategy;
+			strategy.reservations = origin.strategy.reservations;
+			root.plannedActions = origin.plannedActions;
+			root.curAction = origin.curAction;
+
+			strategy.addToFrontier(root);
+			Plan plan = client.searchForAgent(strategy, agentNo);
+
+			return new Result(member, plan, plan != null && !root.pastActions.isEmpty(), root.pastActions,
+					(System.currentTimeMillis() - start) / 1000f);
+		}
+	}
+}
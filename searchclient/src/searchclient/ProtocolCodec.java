@@ -0,0 +1,85 @@
+package searchclient;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes joint actions for the server from the commands of the agents. The text of every command is encoded once, so
+ * forming and sending a joint action only copies bytes into a buffer that is reused for every step. The buffer holds
+ * several joint actions, one per line, so that they can be sent at once (see SearchClient.executeAhead).
+ */
+public class ProtocolCodec {
+	/**
+	 * ASCII text of every command indexed by its ordinal (see Command.byOrdinal).
+	 */
+	private static final byte[][] ENCODED = new byte[Command.NOOP.ordinal + 1][];
+	static {
+		for (int ordinal = 0; ordinal < ENCODED.length; ordinal++) {
+			ENCODED[ordinal] = Command.byOrdinal(ordinal).toString().getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	private final int agentCount;
+	private final byte[] buffer;
+
+	/**
+	 * Start of every line in the buffer; lineStarts[lines] is the end of the last line.
+	 */
+	private final int[] lineStarts;
+	private int lines = 0;
+
+	/**
+	 * @param maxLines Number of joint actions the buffer must hold at once.
+	 */
+	public ProtocolCodec(int agentCount, int maxLines) {
+		int longest = 0;
+		for (byte[] encoded : ENCODED) {
+			longest = Math.max(longest, encoded.length);
+		}
+		this.agentCount = agentCount;
+		// Brackets, commas and the line break
+		this.buffer = new byte[maxLines * (agentCount * (longest + 1) + 2)];
+		this.lineStarts = new int[maxLines + 1];
+	}
+
+	/**
+	 * Drops the joint actions in the buffer.
+	 */
+	public void clear() {
+		lines = 0;
+	}
+
+	/**
+	 * Appends the joint action of given commands (indexed by agent) as a line.
+	 */
+	public void append(Command[] commands) {
+		int position = lineStarts[lines];
+		buffer[position++] = '[';
+		for (int agentNo = 0; agentNo < agentCount; agentNo++) {
+			if (agentNo > 0) {
+				buffer[position++] = ',';
+			}
+			byte[] encoded = ENCODED[commands[agentNo].ordinal];
+			System.arraycopy(encoded, 0, buffer, position, encoded.length);
+			position += encoded.length;
+		}
+		buffer[position++] = ']';
+		buffer[position++] = '\n';
+		lineStarts[++lines] = position;
+	}
+
+	/**
+	 * Writes all joint actions in the buffer at once.
+	 */
+	public void send(PrintStream out) {
+		out.write(buffer, 0, lineStarts[lines]);
+		out.flush();
+	}
+
+	/**
+	 * Writes given joint action of the buffer without its line break, e.g. to log it.
+	 */
+	public void print(PrintStream out, int line) {
+		out.write(buffer, lineStarts[line], lineStarts[line + 1] - lineStarts[line] - 1);
+	}
+}
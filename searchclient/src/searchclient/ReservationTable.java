@@ -0,0 +1,112 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Space-time reservations of the cells used by the plans of other agents, for cooperative planning (see
+ * SearchClient.cooperative). Time is counted in joint actions from now: step i of a plan occupies its cells at time
+ * i + 1. A box moved by a plan keeps occupying its cell until it is moved again. Once a plan ends, its agent and
+ * every box it moved stay where they are.
+ *
+ * The server does not let an agent enter a cell that was occupied at the start of the joint action. A reserved cell is
+ * therefore also kept free one step after it has been left and one step before it is entered, so that neither agent
+ * follows the other into a cell; this covers agents swapping cells as well.
+ *
+ * Searches obeying the table are space-time searches: the agent may wait, and up to the horizon the time is part of
+ * the state (see Node.zobristHash), so a cell reached later is not pruned as a duplicate of an earlier visit.
+ */
+public class ReservationTable {
+	private final int cells;
+
+	/**
+	 * Reserved (time, cell) pairs encoded as time * cells + cell.
+	 */
+	private final HashSet<Long> reserved = new HashSet<Long>();
+
+	/**
+	 * Time from which a cell stays occupied for good (Integer.MAX_VALUE if never) and last time a cell is reserved
+	 * before that (-1 if never).
+	 */
+	private final int[] parkedFrom;
+	private final int[] lastReserved;
+
+	private int horizon = 0;
+
+	/**
+	 * Value of Node.g() of the node the search starts from; the time of a node is its g minus this.
+	 */
+	public final int startG;
+
+	public ReservationTable(int cells, int startG) {
+		this.cells = cells;
+		this.startG = startG;
+		this.parkedFrom = new int[cells];
+		this.lastReserved = new int[cells];
+		Arrays.fill(this.parkedFrom, Integer.MAX_VALUE);
+		Arrays.fill(this.lastReserved, -1);
+	}
+
+	/**
+	 * Reserves the cells of the remaining steps of given plan.
+	 */
+	public void reserve(Plan plan) {
+		int[][] boxCells = plan.movedBoxCells();
+		for (int step = 0; step < plan.size(); step++) {
+			reserve(plan.agentCell(step), step + 1);
+			for (int cell : boxCells[step]) {
+				reserve(cell, step + 1);
+			}
+		}
+
+		if (!plan.isEmpty()) {
+			park(plan.agentCell(plan.size() - 1), plan.size());
+			for (int cell : boxCells[plan.size() - 1]) {
+				park(cell, plan.size());
+			}
+		}
+	}
+
+	/**
+	 * Reserves given cell at given time only.
+	 */
+	public void reserve(int cell, int time) {
+		reserved.add((long) time * cells + cell);
+		lastReserved[cell] = Math.max(lastReserved[cell], time);
+		horizon = Math.max(horizon, time + 1);
+	}
+
+	/**
+	 * Reserves given cell from given time on.
+	 */
+	public void park(int cell, int time) {
+		parkedFrom[cell] = Math.min(parkedFrom[cell], time);
+		horizon = Math.max(horizon, time + 1);
+	}
+
+	private boolean occupied(int cell, int time) {
+		return time >= parkedFrom[cell] || reserved.contains((long) time * cells + cell);
+	}
+
+	/**
+	 * Checks whether given cell may be entered (or stayed in) at given time, i.e. it is not reserved at that time nor
+	 * at the time before or after.
+	 */
+	public boolean isFree(int cell, int time) {
+		return !occupied(cell, time) && (time == 0 || !occupied(cell, time - 1)) && !occupied(cell, time + 1);
+	}
+
+	/**
+	 * Checks whether an agent may stop at given cell at given time and stay there, i.e. no other agent comes by later.
+	 */
+	public boolean isFreeFrom(int cell, int time) {
+		return parkedFrom[cell] == Integer.MAX_VALUE && lastReserved[cell] < time && isFree(cell, time);
+	}
+
+	/**
+	 * Time after which no reservation changes anymore.
+	 */
+	public int horizon() {
+		return horizon;
+	}
+}
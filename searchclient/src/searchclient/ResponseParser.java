@@ -7,25 +7,36 @@ package searchclient;
 public class ResponseParser {
 	int agentCount;
 	boolean[] parsedResponse;
-	
+
 	public ResponseParser(int agentCount) {
 		this.agentCount = agentCount;
 		parsedResponse = new boolean[agentCount];
 	}
-	
-	public boolean[] parseResponse(String response) {
-		int position = 1;
-		for(int agentNo = 0; agentNo < this.agentCount; agentNo++) {
-			if(response.charAt(position) == 't') {
-				position += 6;	// +6 due to 6 characters in "true, "
-				parsedResponse[agentNo] = true;
-			}
-			else {
-				position += 7;	// +7 due to 7 characters in "false, "
-				parsedResponse[agentNo] = false;
+
+	/**
+	 * Reads the "true" and "false" entries of the response character by character, so that it does not depend on the
+	 * exact spacing of the server. The returned array is reused for the next response.
+	 */
+	public boolean[] parseResponse(CharSequence response) {
+		int agentNo = 0;
+		int length = response.length();
+		for(int position = 0; position < length; position++) {
+			char c = response.charAt(position);
+			if(c == 't' || c == 'f') {
+				if(agentNo == this.agentCount) {
+					throw new IllegalArgumentException("Too many entries in response: " + response);
+				}
+				parsedResponse[agentNo++] = c == 't';
+				// Skip the rest of the word
+				while(position + 1 < length && Character.isLetter(response.charAt(position + 1))) {
+					position++;
+				}
 			}
 		}
-		
+		if(agentNo != this.agentCount) {
+			throw new IllegalArgumentException("Too few entries in response: " + response);
+		}
+
 		return parsedResponse;
 	}
 }
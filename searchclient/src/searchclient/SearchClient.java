@@ -16,6 +16,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,11 +55,82 @@ public class SearchClient {
 	
 	public HashMap<Integer, Node> agentOriginNode = new HashMap<Integer, Node>();
 	
-	public String[] agentsAction;	// An array of the agents' next actions
+	public Command[] agentsAction;	// An array of the agents' next actions
+	
+	/**
+	 * Encodes the joint actions sent to the server (see formNextJointAction and executeAhead).
+	 */
+	private ProtocolCodec codec;
 	
 	public static enum StrategyType {
-		bfs, dfs, astar, wastar, greedy
+		bfs, dfs, astar, wastar, greedy, hdastar, hdgreedy
 	}
+	
+	/**
+	 * Implementation of the sets used by the strategies for duplicate detection (see StateSet).
+	 */
+	public StateSet.Type stateSetType = StateSet.Type.hashset;
+	
+	/**
+	 * Tie-breaking used by the bucket queue frontier of the best-first strategies; null means that a PriorityQueue is
+	 * used instead.
+	 */
+	public BucketQueue.TieBreaking bucketTieBreaking = null;
+	
+	/**
+	 * Whether breadth-first search keeps its frontier as DeltaNodes rather than full nodes.
+	 */
+	public boolean deltaNodes = false;
+	
+	/**
+	 * Whether the search statistics should be printed to stderr after every search.
+	 */
+	public static boolean printStats = false;
+	
+	/**
+	 * Maximum number of agents whose next HLA is searched for concurrently (see planNextHLAs); 1 plans sequentially.
+	 */
+	public int planningThreads = Runtime.getRuntime().availableProcessors();
+	
+	private ExecutorService planningPool;
+	
+	/**
+	 * Strategies raced on every HLA instead of the single strategy of the agent; null unless -portfolio is given.
+	 */
+	public Portfolio portfolio = null;
+	
+	private boolean usePortfolio = false;
+	
+	/**
+	 * Cooperative planning: agents are planned one after another and every search keeps off the cells that the
+	 * remaining plans of the other agents use at the same time (see ReservationTable). Relaxed replanning ignores the
+	 * reservations, so the reactive conflict handling stays as the fallback.
+	 */
+	public boolean cooperative = false;
+	
+	/**
+	 * Plans the HLAs of agents planned at the same time jointly by Conflict-Based Search; null unless -cbs is given.
+	 */
+	public ConflictBasedSearch cbs = null;
+	
+	/**
+	 * Maximum number of low level searches of one run of the conflict-based search; 0 disables it.
+	 */
+	private int cbsBudget = 0;
+	
+	/**
+	 * Whether GoTo and GiveWay HLAs are planned by an IncrementalPath kept per agent while the cells to reach stay the
+	 * same, rather than by a BFS from scratch every time.
+	 */
+	public boolean incremental = false;
+	
+	private IncrementalPath[] incrementalPaths;
+	
+	/**
+	 * Maximum number of joint actions sent to the server before their responses are read (see executeAhead); 1 waits
+	 * for the response of every joint action.
+	 */
+	public int pipelineDepth = 1;
 
 	/**
 	 * Reads a level from a file and accordingly sets up internal data structure representing that level. 
@@ -149,6 +226,9 @@ public class SearchClient {
 		
 		this.initialState = new Node(null, rows, cols, agentCount);
 		
+		char[][] boxes = new char[rows][cols];
+		int[][] boxIds = new int[rows][cols];
+		
 		row = 0;
 		
 		int nextBoxId = 1;
@@ -172,9 +252,9 @@ public class SearchClient {
 						// Adds the character with color blue to the color map if it has not been assigned any color
 						colorAssignments.put(chr, Color.blue);
 					}
-					this.initialState.boxes[row][col] = chr;
-					this.initialState.boxIds[row][col] = nextBoxId++;
-					this.discoveredBoxes.add(new Box(this.initialState.boxIds[row][col], chr, colorAssignments.get(chr)));
+					boxes[row][col] = chr;
+					boxIds[row][col] = nextBoxId++;
+					this.discoveredBoxes.add(new Box(boxIds[row][col], chr, colorAssignments.get(chr)));
 					
 				} else if ('a' <= chr && chr <= 'z') { // Goal.
 					this.initialState.goals[row][col] = chr;
@@ -189,13 +269,14 @@ public class SearchClient {
 			}
 			row++;
 		}
+		this.initialState.setBoxes(boxes, boxIds);
 		this.initialState.setcolormap(colorAssignments);
 		
-		agentsAction = new String[agentCount];
+		agentsAction = new Command[agentCount];
 		
 		// The below creates an initial perception of the level that will be used to update each agent's perception of the level.
 		this.perception = new Perception(this.initialState.rows, this.initialState.cols, this.initialState.agentCount,
-										 this.initialState.boxes, this.initialState.boxIds, this.initialState.agents);
+										 boxes, boxIds, this.initialState.agents);
 	}
 	
 	/**
@@ -289,10 +370,10 @@ public class SearchClient {
 	 * @param plans Dictionary produced by the discoverAgentPlans method.
 	 * @return Length of the longest plan.
 	 */
-	private int longestPlanSize(HashMap<Integer, LinkedList<Node>> plans) {
+	private int longestPlanSize(HashMap<Integer, Plan> plans) {
 		int result = 0;
 		
-		for (LinkedList<Node> plan : plans.values())
+		for (Plan plan : plans.values())
 			if (plan.size() > result)
 				result = plan.size();
 		
@@ -304,7 +385,7 @@ public class SearchClient {
 	 * @param agentPlans
 	 * @return An array of strings where each string is a representation of joint action ready to be sent to a server.
 	 */
-	private LinkedList<String> resolveConflicts(HashMap<Integer, LinkedList<Node>> agentPlans) {
+	private LinkedList<String> resolveConflicts(HashMap<Integer, Plan> agentPlans) {
 		return null ;
 	}
 	
@@ -318,17 +399,17 @@ public class SearchClient {
 		Set<Goal> assignedGoals = new HashSet<Goal>();
 		
 		for (Box box : discoveredBoxes) {
-			int[] boxPos = Utils.findBoxPosition(box, this.initialState.boxIds);
+			int[] boxPos = Utils.findBoxPosition(box, this.initialState);
 
 			for (Goal goal : discoveredGoals) {
-				int[] goalPos = Utils.findGoalPosition(goal, this.initialState.goalIds);
+				int[] goalPos = Utils.findGoalPosition(goal, this.initialState);
 				
 				// This goal has already been assigned; skip this goal
 				if (assignedGoals.contains(goal))
 					continue;
 				
 				if (box.goal == null && box.letter == goal.letter) {
-					int pathLength = (new BFS(this.initialState)).distance(goalPos[0], goalPos[1], boxPos[0], boxPos[1]);
+					int pathLength = this.initialState.level.distances.distance(goalPos[0], goalPos[1], boxPos[0], boxPos[1]);
 
 					if (pathLength != -1 && pathLength < bestDist) {
 						bestDist = pathLength;
@@ -362,10 +443,10 @@ public class SearchClient {
 				if (box.goal != null && box.color == agent.color) {
 
 				
-					int[] boxPos = Utils.findBoxPosition(box, initialState.boxIds);
+					int[] boxPos = Utils.findBoxPosition(box, initialState);
 					    	
 					
-		int pathLength = (new BFS(this.initialState)).distance(initialState.agents[agent.id][0], initialState.agents[agent.id][1], boxPos[0], boxPos[1]);
+		int pathLength = this.initialState.level.distances.distance(initialState.agents[agent.id][0], initialState.agents[agent.id][1], boxPos[0], boxPos[1]);
 
 					
 					if(pathLength!=-1){
@@ -416,6 +497,18 @@ public class SearchClient {
 		}
 		
 		discoverAgentPlans(strategyType, client);
+		
+		if (usePortfolio) {
+			portfolio = new Portfolio(client, agentCount);
+		}
+		
+		if (cbsBudget > 0) {
+			cbs = new ConflictBasedSearch(client, cbsBudget);
+		}
+		
+		incrementalPaths = new IncrementalPath[agentCount];
+		
+		codec = new ProtocolCodec(agentCount, Math.max(pipelineDepth, 1));
 
 		
 	}
@@ -433,11 +526,11 @@ public class SearchClient {
 		if(hla instanceof GoToHLA) {
 			////System.err.println("bfsFindsPath() for agent: "+agentNo+" instance GoToHLA");
 			GoToHLA gthla = (GoToHLA) hla;
-			int[] boxPos = Utils.findBoxPosition(gthla.box, n.boxIds);
+			int[] boxPos = Utils.findBoxPosition(gthla.box, n);
 			
 			int dist = bfs.hasClearPath(n.agents[agentNo][0], n.agents[agentNo][1], boxPos[0], boxPos[1]);
 			
-			Utils.printArray(n.boxes, n.rows, n.cols);
+			Utils.printBoxes(n);
 			
 			// //System.err.println("Found Distance for GoToHLA: " + dist);
 			return dist != -1;
@@ -466,7 +559,7 @@ public class SearchClient {
 		if(hla instanceof SatisfyGoalHLA) {
 		//	//System.err.println("bfsFindsPath() for agent: "+agentNo+" instance satisfygoalhla");
 			SatisfyGoalHLA gthla = (SatisfyGoalHLA) hla;
-			int[] goalPos = Utils.findGoalPosition(gthla.goal, n.goalIds);
+			int[] goalPos = Utils.findGoalPosition(gthla.goal, n);
 		//	//System.err.println("bfsFindsPath() for agent: "+agentNo+" instance agent position:"+n.agents[agentNo][0]+","+n.agents[agentNo][1]+". cell pos: "+goalPos[0]+","+goalPos[1]);
 			
 			
@@ -479,7 +572,131 @@ public class SearchClient {
 		return false;
 	}
 
-	public void planNextHLA(HashMap<Integer, LinkedList<Node>> agentLowLevelPlans, int agentNo, boolean relaxPlan, boolean intial) {
+	public void planNextHLA(HashMap<Integer, Plan> agentLowLevelPlans, int agentNo, boolean relaxPlan, boolean intial) {
+		prepareNextHLA(agentNo, relaxPlan, intial);
+		
+		Strategy strategy = agentOriginNode.get(agentNo).strategy;
+		if (cooperative && !relaxPlan) {
+			strategy.reservations = reservationsFor(agentNo, agentLowLevelPlans);
+		}
+		try {
+			agentLowLevelPlans.put(agentNo, searchNextHLA(agentNo)); // hashmap of linked list of each each agent lower plans
+		} finally {
+			strategy.reservations = null;
+		}
+	}
+	
+	/**
+	 * Reserves the remaining steps of the plans of all agents but the given one.
+	 */
+	private ReservationTable reservationsFor(int agentNo, HashMap<Integer, Plan> agentLowLevelPlans) {
+		Node n = agentOriginNode.get(agentNo);
+		ReservationTable reservations = new ReservationTable(n.rows * n.cols, n.g());
+		for (Map.Entry<Integer, Plan> plan : agentLowLevelPlans.entrySet()) {
+			if (plan.getKey() != agentNo) {
+				reservations.reserve(plan.getValue());
+			}
+		}
+		return reservations;
+	}
+	
+	/**
+	 * Plans the next HLA for each of the given agents like planNextHLA. The searches run concurrently on a pool of
+	 * planningThreads threads while the rest (taking the next HLA, the Perception snapshot, relaxing) happens on the
+	 * calling thread. The plans are joined in the order of the given agents, so the result does not depend on which
+	 * search finishes first. In cooperative mode every agent needs the plans of the agents before it, so they are
+	 * planned one after another.
+	 * 
+	 * With -cbs the agents are planned jointly (see planJointly) unless the plans are relaxed anyway.
+	 */
+	public void planNextHLAs(HashMap<Integer, Plan> agentLowLevelPlans, List<Integer> agents, boolean relaxPlan, boolean intial) {
+		if (cbs != null && agents.size() > 1 && !relaxPlan) {
+			planJointly(agentLowLevelPlans, agents, intial);
+			return;
+		}
+		
+		if (agents.size() < 2 || planningThreads < 2 || cooperative) {
+			for (int agentNo : agents) {
+				planNextHLA(agentLowLevelPlans, agentNo, relaxPlan, intial);
+			}
+			return;
+		}
+		
+		List<Future<Plan>> plans = new ArrayList<Future<Plan>>(agents.size());
+		for (final int agentNo : agents) {
+			prepareNextHLA(agentNo, relaxPlan, intial);
+			
+			plans.add(planningPool().submit(new Callable<Plan>() {
+				@Override
+				public Plan call() {
+					return searchNextHLA(agentNo);
+				}
+			}));
+		}
+		
+		for (int i = 0; i < agents.size(); i++) {
+			try {
+				agentLowLevelPlans.put(agents.get(i), plans.get(i).get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Error)
+					throw (Error) e.getCause();
+				throw new RuntimeException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Plans the next HLAs of the given agents by the conflict-based search. Agents without a HLA and, if the search
+	 * gives up, all of the agents are planned one after another as by planNextHLA.
+	 */
+	private void planJointly(HashMap<Integer, Plan> agentLowLevelPlans, List<Integer> agents, boolean intial) {
+		List<Integer> joint = new ArrayList<Integer>(agents.size());
+		for (int agentNo : agents) {
+			prepareNextHLA(agentNo, false, intial);
+			if (agentOriginNode.get(agentNo).curAction != null) {
+				joint.add(agentNo);
+			}
+		}
+		
+		if (joint.size() > 1 && cbs.plan(agentLowLevelPlans, joint)) {
+			for (int agentNo : agents) {
+				if (!joint.contains(agentNo)) {
+					agentLowLevelPlans.put(agentNo, searchNextHLA(agentNo));
+				}
+			}
+			return;
+		}
+		
+		for (int agentNo : agents) {
+			agentLowLevelPlans.put(agentNo, searchNextHLA(agentNo));
+		}
+	}
+	
+	private ExecutorService planningPool() {
+		if (planningPool == null) {
+			// Daemon threads, so that an idle pool does not keep the client alive once the level is solved
+			planningPool = Executors.newFixedThreadPool(planningThreads, new ThreadFactory() {
+				private int count = 0;
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "planner-" + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return planningPool;
+	}
+	
+	/**
+	 * Takes the next HLA of the agent and sets up its origin node (including a snapshot of the Perception) and
+	 * frontier for the search. Must run on the thread that owns the Perception.
+	 */
+	private void prepareNextHLA(int agentNo, boolean relaxPlan, boolean intial) {
 		// relax plan boolean 
 		
 		Node n = agentOriginNode.get(agentNo); // node correspin
@@ -495,13 +712,7 @@ public class SearchClient {
 		
 		
 		if(deadlock || (relaxPlan && intial) ){ /// used only for replaning
-			for(int i=0 ; i<this.agentCount ; i++){
-				if(i!=agentNo){
-					n.agents[i][0] = 0 ;
-					n.agents[i][1] = 0 ;
-				}
-				
-			}
+			n.removeOtherAgents();
 		}
 		
 		Node temp = n.copyOfNode() ;
@@ -520,14 +731,35 @@ public class SearchClient {
 
 		
 		n.strategy.addToFrontier(n);	
+	}
+	
+	/**
+	 * Searches for the low level plan of the HLA set up by prepareNextHLA. Only touches the agent's own origin node
+	 * and strategy, so searches of different agents may run concurrently.
+	 */
+	private Plan searchNextHLA(int agentNo) {
+		Node n = agentOriginNode.get(agentNo);
 		
-		LinkedList<Node> planForAgent = null; /// initiate low level plan
+		Plan planForAgent = null; /// initiate low level plan
 		
 	
 		
 		if(n.curAction != null ) {
 	
-			planForAgent = searchForAgent(n.strategy, agentNo); /// generate the low level actions
+			int pastActions = n.pastActions.size();
+			planForAgent = planLowLevel(n, agentNo);
+			
+			if (n.pastActions.size() == pastActions && n.strategy.reservations != null) {
+				// The reservations may leave no way at all (or none within the iteration limit, which would drop the HLA);
+				// plan without them and leave the conflicts to the main loop
+				n.strategy.clearFrontier();
+				n.strategy.reservations = null;
+				n.strategy.addToFrontier(n);
+				Plan unreserved = planLowLevel(n, agentNo);
+				if (unreserved != null) {
+					planForAgent = unreserved;
+				}
+			}
 		
 		}
 		
@@ -535,18 +767,102 @@ public class SearchClient {
 		
 		if(planForAgent == null) {
 			n.plannedActions.add(0, n.curAction); /// we put it again in plannedAction for second trial that will be relaxed
-			planForAgent = new LinkedList<Node>(); // prevent null pointer exception
+			planForAgent = new Plan(agentNo); // prevent null pointer exception
 		}
 		
 
+		n.strategy.clearFrontier();
 		
-		agentLowLevelPlans.put(agentNo, planForAgent); // hashmap of linked list of each each agent lower plans
-
+		return planForAgent;
+	}
+	
+	Plan planLowLevel(Node n, int agentNo) {
+		Plan plan = planMoves(n, agentNo); /// GoTo and GiveWay only need the agent to walk
+		if (plan == null) {
+			if (portfolio != null) {
+				plan = portfolio.race(n, agentNo); /// race the strategies of the portfolio on the HLA
+			}
+			else {
+				plan = searchForAgent(n.strategy, agentNo); /// generate the low level actions
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * Plans a HLA that only requires the agent to walk (GoTo and GiveWay) by a BFS on the position of the agent, with
+	 * boxes and other agents as obstacles. Much cheaper than searchForAgent, which is only needed when the agent has
+	 * to move boxes out of its way. In cooperative mode the BFS runs over space and time and may wait for other agents.
+	 * @return Plan for the agent or null if the HLA is not a movement or there is no path around the boxes.
+	 */
+	private Plan planMoves(Node n, int agentNo) {
+		int[] targets;
+		if (n.curAction instanceof GoToHLA) {
+			int[] boxPos = Utils.findBoxPosition(((GoToHLA) n.curAction).box, n);
+			if (boxPos == null) {
+				return null;
+			}
+			int box = boxPos[0] * n.cols + boxPos[1];
+			targets = new int[] { box - n.cols, box + n.cols, box - 1, box + 1 };
+		}
+		else if (n.curAction instanceof GiveWayHLA) {
+			int[] cell = ((GiveWayHLA) n.curAction).cell;
+			targets = new int[] { cell[0] * n.cols + cell[1] };
+		}
+		else {
+			return null;
+		}
 		
-		n.strategy.clearFrontier();
+		int[] path;
+		if (n.strategy.reservations != null) {
+			path = new BFS(n).agentPath(agentNo, targets, n.strategy.reservations);
+		}
+		else if (incremental) {
+			path = incrementalPath(n, agentNo, targets);
+		}
+		else {
+			path = new BFS(n).agentPath(agentNo, targets);
+		}
+		if (path == null) {
+			return null;
+		}
+		
+		n.pastActions.add(n.curAction); /// as done by Node.isGoalState once the search reaches the goal
+		if (printStats)
+			System.err.println("Agent " + agentNo + " found a plan by walking: " + path.length + " moves");
+		return Plan.ofMoves(agentNo, n.cols, n.agents[agentNo][0] * n.cols + n.agents[agentNo][1], path);
 	}
 	
-	public LinkedList<String> formJointActions(HashMap<Integer, LinkedList<Node>> listOfActions) {
+	/**
+	 * Finds the path of the agent to given cells by its IncrementalPath, which is only repaired if it leads to the
+	 * same cells as last time. With -stats the work is compared to a BFS from scratch.
+	 */
+	private int[] incrementalPath(Node n, int agentNo, int[] targets) {
+		// Agents are planned on different threads but every agent only touches its own entry
+		IncrementalPath incrementalPath = incrementalPaths[agentNo];
+		boolean repair = incrementalPath != null && incrementalPath.hasTargets(targets);
+		if (!repair) {
+			incrementalPath = new IncrementalPath(n, agentNo, targets);
+			incrementalPaths[agentNo] = incrementalPath;
+		}
+		
+		long expansions = incrementalPath.expansions();
+		long start = System.nanoTime();
+		int[] path = incrementalPath.path(n);
+		long time = System.nanoTime() - start;
+		
+		if (printStats && repair) {
+			start = System.nanoTime();
+			int[] scratch = new BFS(n).agentPath(agentNo, targets);
+			long scratchTime = System.nanoTime() - start;
+			System.err.println(String.format("Agent %d repaired its path (%s moves, BFS from scratch: %s): %d expansions, %.3f ms vs %.3f ms from scratch (%.1fx)",
+					agentNo, path == null ? "none" : path.length, scratch == null ? "none" : scratch.length, incrementalPath.expansions() - expansions,
+					time / 1e6, scratchTime / 1e6, (double) scratchTime / Math.max(time, 1)));
+		}
+		return path;
+	}
+	
+	public LinkedList<String> formJointActions(HashMap<Integer, Plan> listOfActions) {
 		int longestPlan = 0;
 		for(int agentNo = 0; agentNo < agentCount; agentNo++) {
 			int planSize = listOfActions.get(agentNo).size();
@@ -560,9 +876,9 @@ public class SearchClient {
 		for(int step = 0; step < longestPlan; step++) {
 			String jointAction = "[";
 			for(int agentNo = 0; agentNo < agentCount; agentNo++) {
-				LinkedList<Node> curPlan = listOfActions.get(agentNo);
+				Plan curPlan = listOfActions.get(agentNo);
 				if(step < curPlan.size()) {
-					jointAction += curPlan.get(step).action.toString();
+					jointAction += curPlan.command(step).toString();
 				}
 				else {
 					jointAction += "NoOp";
@@ -590,17 +906,23 @@ public class SearchClient {
 	public Strategy createStrategy(StrategyType searchType, SearchClient client) {
 		switch(searchType) {
 			case bfs:
-				return new StrategyBFS();
+				if (deltaNodes)
+					return new StrategyDeltaBFS();
+				return new StrategyBFS(stateSetType);
 			case dfs:
-				return new StrategyDFS();
+				return new StrategyDFS(stateSetType);
 			case astar:
-				return new StrategyBestFirst(new AStar(client.initialState));
+				return new StrategyBestFirst(new AStar(client.initialState), stateSetType, bucketTieBreaking);
 			case wastar:
-				return new StrategyBestFirst(new WeightedAStar(client.initialState, 5));
+				return new StrategyBestFirst(new WeightedAStar(client.initialState, 5), stateSetType, bucketTieBreaking);
 			case greedy:
-				return new StrategyBestFirst(new Greedy(client.initialState));
+				return new StrategyBestFirst(new Greedy(client.initialState), stateSetType, bucketTieBreaking);
+			case hdastar:
+				return new StrategyHDA(new AStar(client.initialState), planningThreads);
+			case hdgreedy:
+				return new StrategyHDA(new Greedy(client.initialState), planningThreads);
 			default:
-				return new StrategyBFS();
+				return new StrategyBFS(stateSetType);
 		}
 	}
 	
@@ -610,111 +932,166 @@ public class SearchClient {
 	 * @param agentNo ID of the agent.
 	 * @return Plan for the agent or null if no solution found.
 	 */
-	public LinkedList<Node> searchForAgent(Strategy strategy, int agentNo) {
-		int iterations = 0;	
-		int uniqueStates = 0;
-		int limit = 40;
-		int iterations2 = 0;
-		int iterations3 = 0;
+	public Plan searchForAgent(Strategy strategy, int agentNo) {
+		Plan plan = strategy.search(agentNo);
+		if (printStats && !strategy.isCancelled())
+			System.err.println("Agent " + agentNo + (plan != null ? " found a plan: " : " found no plan: ") + strategy.searchStatus());
+		return plan;
+	}
 	
-		
-		while (true) {
-			
-			iterations2++;
-			iterations3++;
-			
-            if (iterations == 1000) {
-		
-				iterations = 0;
-				
+	/**
+	 * Takes the next command of every agent into agentsAction (NoOp if its plan is empty) and encodes the joint action
+	 * into the codec, from which it is sent (see sendJointAction).
+	 */
+	public void formNextJointAction(HashMap<Integer, Plan> agentPlans) {
+		for(int agentNo = 0; agentNo < agentCount; agentNo++) {
+			Plan agentlowlevelplan = agentPlans.get(agentNo);
+			if(!agentlowlevelplan.isEmpty()) {
+				agentsAction[agentNo] = agentlowlevelplan.command(0); 
 			}
-            
-
-			if (strategy.frontierIsEmpty()) {
-				return null;
+			else {
+				agentsAction[agentNo] = Command.NOOP;
 			}
-
-			Node leafNode = strategy.getAndRemoveLeaf();
-			if(limit > 0) {
+		}
+		codec.clear();
+		codec.append(agentsAction);
+	}
+	
+	/**
+	 * Sends the joint action formed by formNextJointAction to the server.
+	 */
+	public void sendJointAction() {
+		codec.send(System.out);
+	}
+	
+	/**
+	 * Logs the joint action formed by formNextJointAction and its response to stderr (shown by the server).
+	 */
+	public void logJointAction(String response) {
+		logJointAction(0, response);
+	}
+	
+	private void logJointAction(int line, String response) {
+		System.err.print("Action:");
+		codec.print(System.err, line);
+		System.err.println(" Response:" + response);
+		System.err.println("");
+	}
+	
+	/**
+	 * Number of the next joint actions (at most pipelineDepth) that may be sent before their responses are known: every
+	 * agent with a plan must still have a step left and the plans must not conflict within these steps.
+	 */
+	public int safeLookahead(HashMap<Integer, Plan> agentLowLevelPlans) {
+		int steps = pipelineDepth;
+		boolean moving = false;
+		Plan[] plans = new Plan[agentCount];
+		int[] starts = new int[agentCount];
+		for (int agentNo = 0; agentNo < agentCount; agentNo++) {
+			plans[agentNo] = agentLowLevelPlans.get(agentNo);
+			starts[agentNo] = perception.agents[agentNo][0] * initialState.cols + perception.agents[agentNo][1];
+			if (!plans[agentNo].isEmpty()) {
+				steps = Math.min(steps, plans[agentNo].size());
+				moving = true;
+			}
+		}
+		if (!moving) {
+			return 0;
+		}
+		
+		ConflictBasedSearch.Conflict conflict = ConflictBasedSearch.firstConflict(plans, starts, steps);
+		if (conflict != null) {
+			steps = Math.min(steps, conflict.timeA - 1);
+		}
+		return steps;
+	}
 	
-				limit--;
+	/**
+	 * Sends the given number of next joint actions at once and then reads their responses as they arrive. Nothing is
+	 * applied ahead of the responses: the Perception is updated by every action the server executed and a plan only
+	 * advances while the actions of its agent succeed. Once an action of an agent has failed, the rest of its plan was
+	 * made for a state that does not exist, so the plan is dropped and replanned from the Perception.
+	 * 
+	 * The first joint action with a failure is left in agentsAction, so that its response goes through the same conflict
+	 * handling as a single joint action; the joint actions before it all moved an agent and count as progress for
+	 * deadlockdetector.
+	 * @return The response to the first joint action with a failure, or null if every action succeeded.
+	 */
+	public boolean[] executeAhead(HashMap<Integer, Plan> agentLowLevelPlans, int steps, ServerReceiver receiver, ResponseParser responsePar) throws IOException {
+		Command[][] actions = new Command[steps][agentCount];
+		codec.clear();
+		for (int step = 0; step < steps; step++) {
+			for (int agentNo = 0; agentNo < agentCount; agentNo++) {
+				Plan plan = agentLowLevelPlans.get(agentNo);
+				actions[step][agentNo] = step < plan.size() ? plan.command(step) : Command.NOOP;
 			}
+			codec.append(actions[step]);
+		}
+		codec.send(System.out);
+		
+		boolean[] failed = new boolean[agentCount];
+		boolean[] failedResponse = null;
+		for (int step = 0; step < steps; step++) {
+			String response = receiver.take();
+			logJointAction(step, response);
 			
-			if(iterations2==200){
-				iterations2 = 0 ;
-				for(int i=0 ; i<this.agentCount ; i++){
-				if(i!=agentNo){
-					leafNode.agents[i][0] = 0 ;
-					leafNode.agents[i][1] = 0 ;
+			boolean[] parsedResponse = responsePar.parseResponse(response);
+			if (failedResponse == null) {
+				for (int agentNo = 0; agentNo < agentCount; agentNo++) {
+					if (!parsedResponse[agentNo]) {
+						failedResponse = parsedResponse;
+						System.arraycopy(actions[step], 0, agentsAction, 0, agentCount);
+						break;
+					}
+				}
+				if (failedResponse == null) {
+					deadlockdetector(parsedResponse);
 				}
-				
 			}
-				for(int row = 0; row < leafNode.rows; row++) {
-					for(int col = 0; col < leafNode.cols; col++) {
-						char boxChar = leafNode.boxes[row][col];
-						if(boxChar > 0 && !leafNode.sameColorAsAgent(leafNode.agentNo, boxChar)) {
-							leafNode.boxes[row][col] = 0;
-						}
+			for (int agentNo = 0; agentNo < agentCount; agentNo++) {
+				if (parsedResponse[agentNo]) {
+					perception.update(actions[step][agentNo].ordinal, agentNo);
+					if (!failed[agentNo]) {
+						RemoveJointAction(agentLowLevelPlans, agentNo);
 					}
 				}
+				else {
+					failed[agentNo] = true;
+				}
 			}
-			
-			
-		
-			
-			
-			
-			if (leafNode.isGoalState(iterations3)) {
-				iterations2 = 0 ;
-				iterations3 = 0;
-				return leafNode.extractPlan();
-			}
-			
+		}
 		
-			strategy.addToExplored(leafNode);
-			
-			for (Node n : leafNode.getExpandedNodes(agentNo)) { // The list of expanded nodes is shuffled randomly; see Node.java.
-				if (!strategy.isExplored(n) && !strategy.inFrontier(n)) {
-
-					strategy.addToFrontier(n);
-				}
+		for (int agentNo = 0; agentNo < agentCount; agentNo++) {
+			if (failed[agentNo]) {
+				agentLowLevelPlans.get(agentNo).clear();
 			}
-			iterations++;
 		}
+		return failedResponse;
 	}
 	
-	public static LinkedList<String> actualAction ;
-
-	
-	public String formNextJointAction(HashMap<Integer, LinkedList<Node>> agentPlans) {
-		actualAction = new LinkedList<String>();
-		String jointAction = "[";
+	/**
+	 * Checks whether no agent has HLAs or low level actions left, after putting back the HLAs whose goals were undone
+	 * (see Node.checkHLAs).
+	 */
+	public boolean allAgentsDone(HashMap<Integer, Plan> agentLowLevelPlans) {
+		int noOfEmptyPlans = 0;
 		for(int agentNo = 0; agentNo < agentCount; agentNo++) {
-			LinkedList<Node> agentlowlevelplan = agentPlans.get(agentNo);
-			if(!agentlowlevelplan.isEmpty()) {
-				agentsAction[agentNo] = agentlowlevelplan.get(0).action.toString(); 
-				
-				jointAction += agentsAction[agentNo]; 
-			}
-			else {
-				agentsAction[agentNo] = "NoOp";
-				
-				jointAction += "NoOp";
-			}
-			if(agentNo != agentCount - 1) {
-				jointAction += ",";
+			Node n = agentOriginNode.get(agentNo);
+			if(n.plannedActions.isEmpty() && agentLowLevelPlans.get(agentNo).isEmpty()) {
+				n.checkHLAs();	
+				if(n.plannedActions.isEmpty()) {
+					noOfEmptyPlans += 1;
+				}
 			}
-			actualAction.add(agentsAction[agentNo]);
 		}
-		jointAction += "]";
 		
-		return jointAction;
+		return noOfEmptyPlans == agentCount;
 	}
 	
-	public static void RemoveJointAction(HashMap<Integer, LinkedList<Node>> agentlowlevelsplans,int agentNo){
-		LinkedList<Node> curPlan = agentlowlevelsplans.get(agentNo);
+	public static void RemoveJointAction(HashMap<Integer, Plan> agentlowlevelsplans,int agentNo){
+		Plan curPlan = agentlowlevelsplans.get(agentNo);
 		if(!curPlan.isEmpty()) {
-			 curPlan.remove(0); // remove the head
+			 curPlan.removeFirst(); // remove the head
 		}
 	}
  
@@ -725,9 +1102,9 @@ public class SearchClient {
 
 		
 		searchclient.ObjectFinder objectFinder = new searchclient.ObjectFinder(agentrow, agentcol);
-		 potentialObject = objectFinder.getBoxPos(actualAction.get(agentNo));
+		 potentialObject = objectFinder.getBoxPos(agentsAction[agentNo]);
     	if(potentialObject[0]!=-1 && potentialObject[1]!=-1)
-		if(n.boxIds[potentialObject[0]][potentialObject[1]]!=0){
+		if(n.boxIdAt(potentialObject[0], potentialObject[1])!=0){
 			return "box" ;
 		}
 		else {
@@ -762,7 +1139,7 @@ public class SearchClient {
 		else if(type.equals("agents")){
 			
 			/// give priority to agent with push or pull action
-			if(!actualAction.get(AgentNo).contains("Push") && !actualAction.get(AgentNo).contains("Pull") && (actualAction.get(DetectedAgent).contains("Push") || actualAction.get(DetectedAgent).contains("Pull"))) {
+			if(!movesBox(agentsAction[AgentNo]) && movesBox(agentsAction[DetectedAgent])) {
 				agents[0] = DetectedAgent ;        
 				agents[1] =  AgentNo;
 				//System.err.println("---priorities switched");
@@ -782,6 +1159,10 @@ public class SearchClient {
 		return agents ;
 	}
 	
+	private static boolean movesBox(Command command) {
+		return command.actionType == Command.Type.Push || command.actionType == Command.Type.Pull;
+	}
+	
 	public int getOpposingAgent(Node n){
 		for(int agentNo = 0; agentNo < agentCount; agentNo++) {
 			if(n.agents[agentNo][0] == potentialObject[0] && n.agents[agentNo][1] == potentialObject[1]) {
@@ -793,7 +1174,7 @@ public class SearchClient {
 	
 	public int getAgentBox(Node n){
 		
-		char boxChar = n.boxes[potentialObject[0]][potentialObject[1]];
+		char boxChar = n.boxLetterAt(potentialObject[0], potentialObject[1]);
 		
 		Color boxColor = n.colorAssignments.get(boxChar);
 		
@@ -824,10 +1205,9 @@ public class SearchClient {
 			
 		
 		if(availableAgents[counter]!=-1){
-			BFS cbfs = new BFS(n);
 			int agentn = availableAgents[counter];
 			
-			distance = cbfs.distance(n.agents[agentn][0], n.agents[agentn][1], potentialObject[0], potentialObject[1]);
+			distance = n.level.distances.distance(n.agents[agentn][0], n.agents[agentn][1], potentialObject[0], potentialObject[1]);
 			
 			if(distance<shortestdistance){
 				shortestdistance= distance ;
@@ -844,7 +1224,7 @@ public class SearchClient {
 		return choosedAgent ;
 	}
 	
-	public void PlanForStoreTemp(Node n, int highPagent, int lowPagent,HashMap<Integer, LinkedList<Node>> agentLowLevelPlans){
+	public void PlanForStoreTemp(Node n, int highPagent, int lowPagent,HashMap<Integer, Plan> agentLowLevelPlans){
 		Box boxToMove = null;
 		boolean foundBox = false;
 		
@@ -862,7 +1242,7 @@ public class SearchClient {
 			/// get the box object from the box location 
 			for (Iterator<Box> it = discoveredBoxes.iterator(); it.hasNext(); ) {
 			    boxToMove = it.next();
-			    if(boxToMove.id == n.boxIds[potentialObject[0]][potentialObject[1]]) {
+			    if(boxToMove.id == n.boxIdAt(potentialObject[0], potentialObject[1])) {
 			    	foundBox = true;
 			    	break;
 			    }
@@ -904,7 +1284,7 @@ public class SearchClient {
 		
 	}
 	
-	public void PlanForGiveWay(Node n, int highPagent, int lowPagent,HashMap<Integer, LinkedList<Node>> agentLowLevelPlans){
+	public void PlanForGiveWay(Node n, int highPagent, int lowPagent,HashMap<Integer, Plan> agentLowLevelPlans){
 		BFS cbfs = new BFS(n);
 		int[] freeCellPos = cbfs.searchForFreeCell(highPagent,lowPagent, n, agentLowLevelPlans);
 		
@@ -982,7 +1362,7 @@ public class SearchClient {
 	public HashMap<Integer, Integer> blocker = new HashMap<Integer, Integer>();
 	
 	
-	public boolean deadlockhandler(int lowPagent, Node n, HashMap<Integer, LinkedList<Node>> agentLowLevelPlans,int highPagent, String type){
+	public boolean deadlockhandler(int lowPagent, Node n, HashMap<Integer, Plan> agentLowLevelPlans,int highPagent, String type){
 		boolean returnvalue = false ;
 		boolean cellfound = false ;
 		
@@ -1062,16 +1442,16 @@ public class SearchClient {
 	
 	public HashMap<Integer, Integer> cnflicting_agents = new HashMap<Integer, Integer>();
 	  
-public int  IsLowLevelPlanNotConflicting(HashMap<Integer, LinkedList<Node>> agentLowLevelPlans){
+public int  IsLowLevelPlanNotConflicting(HashMap<Integer, Plan> agentLowLevelPlans){
 		
 		HashMap <String,Integer> positions = new HashMap <String,Integer>();
 		
 		for(int agentNo=0; agentNo<this.agentCount; agentNo++){
 			if(!agentLowLevelPlans.get(agentNo).isEmpty()){
-				if(agentLowLevelPlans.get(agentNo).get(0).action.actionType.equals(Command.Type.Pull) || agentLowLevelPlans.get(agentNo).get(0).action.actionType.equals(Command.Type.Push)){
+				if(agentLowLevelPlans.get(agentNo).command(0).actionType.equals(Command.Type.Pull) || agentLowLevelPlans.get(agentNo).command(0).actionType.equals(Command.Type.Push)){
 						
-					int newagentrow = agentLowLevelPlans.get(agentNo).get(0).agents[agentNo][0]; 
-		    		int newagentcol = agentLowLevelPlans.get(agentNo).get(0).agents[agentNo][1];
+					int newagentrow = agentLowLevelPlans.get(agentNo).agentRow(0); 
+		    		int newagentcol = agentLowLevelPlans.get(agentNo).agentCol(0);
 		    		String newagentpos = newagentrow+"-"+newagentcol ;
 		    		if(positions.containsKey(newagentpos)){
 		    			return positions.get(newagentpos) ; 
@@ -1099,10 +1479,10 @@ boolean deadlock = false ;
 	
 		SearchClient client = new SearchClient(serverMessages);
 
-		StrategyType strategyType = null;
+		StrategyType strategyType = StrategyType.bfs;
 		
-        if (args.length > 0) {
-            switch (args[0].toLowerCase()) {
+        for (String arg : args) {
+            switch (arg.toLowerCase()) {
                 case "-bfs":
                 	strategyType = StrategyType.bfs;
                     break;
@@ -1118,17 +1498,71 @@ boolean deadlock = false ;
                 case "-greedy":
                 	strategyType = StrategyType.greedy;
                     break;
+                case "-hdastar":
+                	strategyType = StrategyType.hdastar;
+                    break;
+                case "-hdgreedy":
+                	strategyType = StrategyType.hdgreedy;
+                    break;
+                case "-fingerprints":
+                	// Duplicate detection on 64-bit state fingerprints instead of HashSets of nodes
+                	client.stateSetType = StateSet.Type.fingerprint;
+                    break;
+                case "-delta":
+                	// Delta-encoded frontier for -bfs (implies fingerprint sets)
+                	client.deltaNodes = true;
+                    break;
+                case "-stats":
+                	printStats = true;
+                    break;
+                case "-bucket":
+                case "-bucket=highg":
+                	// Bucket queue frontier for -astar, -wastar and -greedy
+                	client.bucketTieBreaking = BucketQueue.TieBreaking.highg;
+                    break;
+                case "-bucket=lifo":
+                	client.bucketTieBreaking = BucketQueue.TieBreaking.lifo;
+                    break;
+                case "-bucket=fifo":
+                	client.bucketTieBreaking = BucketQueue.TieBreaking.fifo;
+                    break;
+                case "-portfolio":
+                	// Race BFS, greedy, WA* and A* on every HLA; the first plan wins
+                	client.usePortfolio = true;
+                    break;
+                case "-coop":
+                	// Space-time reservations of the plans of other agents (implies sequential planning)
+                	client.cooperative = true;
+                    break;
+                case "-cbs":
+                	// Conflict-based search over the HLAs of the agents planned together
+                	client.cbsBudget = 64;
+                    break;
+                case "-incremental":
+                	// Repair the paths of GoTo and GiveWay HLAs by D* Lite instead of searching from scratch
+                	client.incremental = true;
+                    break;
                 default:
-                	strategyType = StrategyType.bfs;
+                	if (arg.startsWith("-pipeline=")) {
+                		// Number of joint actions sent ahead of their responses; -pipeline=1 waits for every response
+                		client.pipelineDepth = Integer.parseInt(arg.substring("-pipeline=".length()));
+                	}
+                	else if (arg.startsWith("-cbs=")) {
+                		// Maximum number of low level searches of one conflict-based search
+                		client.cbsBudget = Integer.parseInt(arg.substring("-cbs=".length()));
+                	}
+                	else if (arg.startsWith("-threads=")) {
+                		// Number of agents planned concurrently; -threads=1 plans them one after another
+                		client.planningThreads = Integer.parseInt(arg.substring("-threads=".length()));
+                	}
+                    break;
                              }
-        } else {
-        	strategyType = StrategyType.bfs;
-               }
+        }
         
      
         
         
-        HashMap<Integer, LinkedList<Node>> agentLowLevelPlans = new HashMap<Integer, LinkedList<Node>>();
+        HashMap<Integer, Plan> agentLowLevelPlans = new HashMap<Integer, Plan>();
         
 		try {
 		
@@ -1146,14 +1580,21 @@ boolean deadlock = false ;
 		
 		
 
+		List<Integer> agentsToPlan = new ArrayList<Integer>();
 		for(int agentNo = 0; agentNo < agentCount; agentNo++) {
+			agentsToPlan.add(agentNo);
+		}
 		//	System.err.println("Initial planning");
-			client.planNextHLA(agentLowLevelPlans, agentNo, false, false);
+		client.planNextHLAs(agentLowLevelPlans, agentsToPlan, false, false);
+		
+		List<Integer> agentsToRelax = new ArrayList<Integer>();
+		for(int agentNo : agentsToPlan) {
 			if(agentLowLevelPlans.get(agentNo).isEmpty()) {
 			//	System.err.println("Creating a relaxed plan for: " + agentNo);
-				client.planNextHLA(agentLowLevelPlans, agentNo, true, false);
+				agentsToRelax.add(agentNo);
 			}
 		}
+		client.planNextHLAs(agentLowLevelPlans, agentsToRelax, true, false);
 		
 
 		
@@ -1162,6 +1603,13 @@ boolean deadlock = false ;
 		ResponseParser responsePar = new ResponseParser(agentCount);
 		serverMessages.readLine(); // This is called to ignore the initial server message
 		
+		ServerReceiver receiver = null;
+		boolean aheadFailed = false;
+		if (client.pipelineDepth > 1) {
+			receiver = new ServerReceiver(serverMessages);
+			receiver.start();
+		}
+		
 		
 		
 		int[] trials = new int[client.initialState.agentCount];
@@ -1176,7 +1624,9 @@ boolean deadlock = false ;
 			
 			k++;
 		
-		
+			agentsToPlan.clear();
+			agentsToRelax.clear();
+			
 			for (int agentNo = 0; agentNo < agentCount; agentNo++) {
 				// System.err.println("Creating a normal plan for: " + agentNo);
 			
@@ -1199,8 +1649,14 @@ boolean deadlock = false ;
 
 			//		System.err.println("plan for: " + agentNo + " is empty and agent no blocked");
 
-						client.planNextHLA(agentLowLevelPlans, agentNo, false, false);
-						
+					agentsToPlan.add(agentNo);
+				}
+			}
+			
+			// The searches of the agents are independent, so they run concurrently; the plans are joined in agent order
+			client.planNextHLAs(agentLowLevelPlans, agentsToPlan, false, false);
+			
+			for (int agentNo : agentsToPlan) {
 				//		System.err.println(agentLowLevelPlans.get(agentNo).toString());
 						
 
@@ -1214,30 +1670,48 @@ boolean deadlock = false ;
 					
 					if (agentLowLevelPlans.get(agentNo).isEmpty()){
 				//	System.err.println("no plan need to relax");
-						client.planNextHLA(agentLowLevelPlans, agentNo, true, false);
+						agentsToRelax.add(agentNo);
 					}
-					
-					
-				}
-				
-				
-				
-				
-
 			}
 			
+			client.planNextHLAs(agentLowLevelPlans, agentsToRelax, true, false);
+			
+			boolean[] parsedResponse = null;
+			if (receiver != null && !aheadFailed) {
+				// Send several joint actions before waiting for their responses while the plans allow it
+				int steps = client.safeLookahead(agentLowLevelPlans);
+				if (steps > 1) {
+					parsedResponse = client.executeAhead(agentLowLevelPlans, steps, receiver, responsePar);
+					if (parsedResponse == null) {
+						if (client.allAgentsDone(agentLowLevelPlans)) {
+							break;
+						}
+						continue;
+					}
+				}
+			}
+			// A failed batch goes through the conflict handling below, already applied to the plans and the Perception
+			boolean ahead = parsedResponse != null;
 			
-			String jointAction = client.formNextJointAction(agentLowLevelPlans);  /// forming join action
+			if (!ahead) {
+				client.formNextJointAction(agentLowLevelPlans);  /// forming join action
 
-			System.out.println(jointAction); // send it to the server
-			String response = serverMessages.readLine();
-			
+				client.sendJointAction(); // send it to the server
+				String response = receiver != null ? receiver.take() : serverMessages.readLine();
+				
 
+				
+				client.logJointAction(response);
+				parsedResponse = responsePar.parseResponse(response);
+			}
 			
-		    System.err.print("Action:" + jointAction);
-			System.err.println(" Response:" + response);
-			System.err.println("");
-			boolean[] parsedResponse = responsePar.parseResponse(response);
+			// Joint actions are sent one at a time while they fail, so that the trials below count every failure
+			aheadFailed = false;
+			for (boolean succeeded : parsedResponse) {
+				if (!succeeded) {
+					aheadFailed = true;
+				}
+			}
 			
 			boolean[] editedcopyOfResponse = new boolean[parsedResponse.length];
 			
@@ -1245,7 +1719,7 @@ boolean deadlock = false ;
 			
 			int allnoop = 0 ;
 			for(int l=0;l<parsedResponse.length;l++){
-				if(actualAction.get(l).equals("NoOp") || parsedResponse[l] == false ){
+				if(client.agentsAction[l] == Command.NOOP || parsedResponse[l] == false ){
 					editedcopyOfResponse[l] = false ;
 					allnoop++;
 					
@@ -1262,7 +1736,9 @@ boolean deadlock = false ;
 		
 			for (int i = 0; i < parsedResponse.length; i++) {
 				if (parsedResponse[i] && !client.deadlock) {
-					RemoveJointAction(agentLowLevelPlans, i);
+					if (!ahead) {
+						RemoveJointAction(agentLowLevelPlans, i);
+					}
 				} 
 				else if (trials[i] == 1) {
 					// replan
@@ -1349,25 +1825,14 @@ boolean deadlock = false ;
 			}
 			
 			for(int agentNo = 0; agentNo < agentCount; agentNo++) {
-				if(parsedResponse[agentNo]) {
-					client.perception.update(client.agentsAction[agentNo], agentNo);
+				if(parsedResponse[agentNo] && !ahead) {
+					client.perception.update(client.agentsAction[agentNo].ordinal, agentNo);
 					
 				}
 			
 			}
 			
-			int noOfEmptyPlans = 0;
-			for(int agentNo = 0; agentNo < agentCount; agentNo++) {
-				Node n = client.agentOriginNode.get(agentNo);
-				if(n.plannedActions.isEmpty() && agentLowLevelPlans.get(agentNo).isEmpty()) {
-					n.checkHLAs();	
-					if(n.plannedActions.isEmpty()) {
-						noOfEmptyPlans += 1;
-					}
-				}
-			}
-			
-			if(noOfEmptyPlans == agentCount) {
+			if(client.allAgentsDone(agentLowLevelPlans)) {
 				break;
 			}
 			
@@ -0,0 +1,57 @@
+package searchclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reads the messages of the server on its own thread (as suggested in sampleclients.GuiClient), so that the client
+ * can send several joint actions before it needs their responses (see SearchClient.executeAhead).
+ */
+public class ServerReceiver extends Thread {
+	/**
+	 * Queued in place of a message once the server has closed the stream.
+	 */
+	private static final String END = new String("END");
+
+	private final BufferedReader serverMessages;
+	private final LinkedBlockingQueue<String> inbound = new LinkedBlockingQueue<String>();
+
+	public ServerReceiver(BufferedReader serverMessages) {
+		super("server-receiver");
+		this.serverMessages = serverMessages;
+		// Does not keep the client alive once the level is solved
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		try {
+			String msg;
+			while ((msg = serverMessages.readLine()) != null) {
+				inbound.add(msg);
+			}
+		} catch (IOException e) {
+			// Treated as the end of the messages
+		}
+		inbound.add(END);
+	}
+
+	/**
+	 * Waits for the next message of the server.
+	 * @throws IOException If the server has closed the stream.
+	 */
+	public String take() throws IOException {
+		try {
+			String msg = inbound.take();
+			if (msg == END) {
+				inbound.add(END);
+				throw new IOException("End of server messages");
+			}
+			return msg;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Set of states used by the strategies for duplicate detection (explored states and states in the frontier).
+ */
+public interface StateSet {
+	public static enum Type {
+		hashset, fingerprint
+	}
+
+	public void add(Node n);
+
+	public boolean contains(Node n);
+
+	public void remove(Node n);
+
+	public int size();
+
+	public void clear();
+
+	/**
+	 * Estimated number of bytes held by the set itself (not counting the nodes it may keep alive).
+	 */
+	public long memoryFootprint();
+
+	public static StateSet create(Type type) {
+		switch (type) {
+			case fingerprint:
+				return new FingerprintSet();
+			case hashset:
+			default:
+				return new NodeHashSet();
+		}
+	}
+
+	/**
+	 * Keeps the nodes themselves in a java.util.HashSet.
+	 */
+	public static class NodeHashSet implements StateSet {
+		// Rough size of a HashMap entry plus its slot in the table on a 64-bit JVM with compressed references
+		private static final int BYTES_PER_ENTRY = 32 + 8;
+
+		private HashSet<Node> set = new HashSet<Node>();
+
+		@Override
+		public void add(Node n) {
+			set.add(n);
+		}
+
+		@Override
+		public boolean contains(Node n) {
+			return set.contains(n);
+		}
+
+		@Override
+		public void remove(Node n) {
+			set.remove(n);
+		}
+
+		@Override
+		public int size() {
+			return set.size();
+		}
+
+		@Override
+		public void clear() {
+			set.clear();
+		}
+
+		@Override
+		public long memoryFootprint() {
+			return (long) set.size() * BYTES_PER_ENTRY;
+		}
+	}
+
+	/**
+	 * Open-addressing table of 64-bit Zobrist fingerprints (see Node.zobristHash()) stored in a long[] with linear
+	 * probing. Nodes are not referenced by the set, so explored states can be garbage collected once nothing else
+	 * points to them. Two distinct states with the same fingerprint are considered equal; with 64-bit keys this is
+	 * very unlikely on the state spaces we search.
+	 */
+	public static class FingerprintSet implements StateSet {
+		private static final int INITIAL_CAPACITY = 1 << 12;
+
+		/**
+		 * Marks an empty slot; a state whose fingerprint happens to be 0 is stored as EMPTY_REPLACEMENT.
+		 */
+		private static final long EMPTY = 0;
+		private static final long EMPTY_REPLACEMENT = 0x9E3779B97F4A7C15L;
+
+		private long[] table = new long[INITIAL_CAPACITY];
+		private int mask = INITIAL_CAPACITY - 1;
+		private int size = 0;
+
+		private static long fingerprint(Node n) {
+			long fp = n.zobristHash();
+			return fp == EMPTY ? EMPTY_REPLACEMENT : fp;
+		}
+
+		private int slotOf(long fp) {
+			// The Zobrist keys are random, so the low bits (mixed with the high ones) are well distributed
+			return (int) (fp ^ (fp >>> 32)) & mask;
+		}
+
+		@Override
+		public void add(Node n) {
+			long fp = fingerprint(n);
+			int slot = slotOf(fp);
+			while (table[slot] != EMPTY) {
+				if (table[slot] == fp)
+					return;
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = fp;
+			size++;
+
+			// Keep the load factor at most 1/2 so that probe sequences stay short
+			if (size * 2 > table.length)
+				resize(table.length * 2);
+		}
+
+		@Override
+		public boolean contains(Node n) {
+			long fp = fingerprint(n);
+			int slot = slotOf(fp);
+			while (table[slot] != EMPTY) {
+				if (table[slot] == fp)
+					return true;
+				slot = (slot + 1) & mask;
+			}
+			return false;
+		}
+
+		@Override
+		public void remove(Node n) {
+			long fp = fingerprint(n);
+			int slot = slotOf(fp);
+			while (table[slot] != EMPTY) {
+				if (table[slot] == fp) {
+					deleteSlot(slot);
+					size--;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		/**
+		 * Backward-shift deletion: moves the following entries of the probe run back so that no tombstones are needed.
+		 */
+		private void deleteSlot(int slot) {
+			int hole = slot;
+			int next = (hole + 1) & mask;
+			while (table[next] != EMPTY) {
+				int home = slotOf(table[next]);
+				// Move the entry into the hole unless its home slot lies cyclically in (hole, next]
+				if (((next - home) & mask) >= ((next - hole) & mask)) {
+					table[hole] = table[next];
+					hole = next;
+				}
+				next = (next + 1) & mask;
+			}
+			table[hole] = EMPTY;
+		}
+
+		private void resize(int capacity) {
+			long[] old = table;
+			table = new long[capacity];
+			mask = capacity - 1;
+			for (long fp : old) {
+				if (fp != EMPTY) {
+					int slot = slotOf(fp);
+					while (table[slot] != EMPTY)
+						slot = (slot + 1) & mask;
+					table[slot] = fp;
+				}
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void clear() {
+			if (table.length > INITIAL_CAPACITY) {
+				table = new long[INITIAL_CAPACITY];
+				mask = INITIAL_CAPACITY - 1;
+			} else {
+				Arrays.fill(table, EMPTY);
+			}
+			size = 0;
+		}
+
+		@Override
+		public long memoryFootprint() {
+			return (long) table.length * 8;
+		}
+	}
+}
@@ -6,23 +6,81 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import models.HighLevelAction;
 
 import searchclient.Memory;
 import searchclient.NotImplementedException;
 
 public abstract class Strategy extends Thread {
-	private HashSet<Node> explored;
+	private StateSet explored;
 	private final long startTime;
+	
+	/**
+	 * Implementation of the explored set and the frontier sets used for duplicate detection.
+	 */
+	protected final StateSet.Type stateSetType;
+	
+	/**
+	 * Largest memory footprint of the sets seen so far; the sets are cleared once a HLA is satisfied.
+	 */
+	private long peakFootprint = 0;
+	
+	/**
+	 * Number of nodes expanded by this strategy; unlike the explored set it is not reset between HLAs.
+	 */
+	private long expandedCount = 0;
+	
+	/**
+	 * Source of randomness for the order of expanded nodes (see Node.getExpandedNodes). Every agent owns its strategy,
+	 * so agents planning on different threads do not share it and each search stays reproducible.
+	 */
+	public final Random rnd = new Random(1);
+	
+	/**
+	 * Set when another strategy racing on the same HLA has won (see Portfolio); the search stops at its next
+	 * expansion.
+	 */
+	private volatile boolean cancelled = false;
+	
+	/**
+	 * Cells reserved by the plans of other agents during the current search in cooperative mode (see
+	 * SearchClient.cooperative), otherwise null. Successors using a reserved cell are not generated.
+	 */
+	public ReservationTable reservations;
 
 	public Strategy() {
-		this.explored = new HashSet<Node>();
+		this(StateSet.Type.hashset);
+	}
+
+	public Strategy(StateSet.Type stateSetType) {
+		this.stateSetType = stateSetType;
+		this.explored = StateSet.create(stateSetType);
 		this.startTime = System.currentTimeMillis();
 	}
 
 	public void addToExplored(Node n) {
 		this.explored.add(n);
+		this.expandedCount++;
+		
+		long footprint = this.memoryFootprint();
+		if (footprint > this.peakFootprint)
+			this.peakFootprint = footprint;
 	}
 
 	public boolean isExplored(Node n) {
@@ -33,14 +91,76 @@ public abstract class Strategy extends Thread {
 		return this.explored.size();
 	}
 
+	public long countExpanded() {
+		return this.expandedCount;
+	}
+
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public void clearCancelled() {
+		this.cancelled = false;
+	}
+
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * Estimated number of bytes held by the explored and frontier sets.
+	 */
+	public long memoryFootprint() {
+		return this.explored.memoryFootprint();
+	}
+
 	public String searchStatus() {
-		return String.format("#Explored: %,6d, #Frontier: %,6d, #Generated: %,6d, Time: %3.2f s \t%s", this.countExplored(), this.countFrontier(), this.countExplored()+this.countFrontier(), this.timeSpent(), Memory.stringRep());
+		return String.format("#Explored: %,6d, #Frontier: %,6d, #Generated: %,6d, Time: %3.2f s, Sets (%s): %,d KB (peak %,d KB) \t%s", this.countExplored(), this.countFrontier(), this.countExplored()+this.countFrontier(), this.timeSpent(), this.stateSetType, this.memoryFootprint() / 1024, this.peakFootprint / 1024, Memory.stringRep());
 	}
 
 	public float timeSpent() {
 		return (System.currentTimeMillis() - this.startTime) / 1000f;
 	}
 
+	/**
+	 * Searches from the nodes in the frontier until the current HLA of the agent is reached (see Node.isGoalState) and
+	 * returns the plan, or null if there is none or the search has been cancelled. Every 200 expansions the leaf is
+	 * relaxed (other agents and boxes of other colours removed) to get the agent out of blocked situations.
+	 */
+	public Plan search(int agentNo) {
+		int sinceRelaxed = 0;
+		int iterations = 0;
+		
+		while (true) {
+			sinceRelaxed++;
+			iterations++;
+			
+			if (this.isCancelled() || this.frontierIsEmpty()) {
+				return null;
+			}
+			
+			Node leafNode = this.getAndRemoveLeaf();
+			
+			if (sinceRelaxed == 200) {
+				sinceRelaxed = 0;
+				leafNode.removeOtherAgents();
+				leafNode.relaxNode();
+			}
+			
+			if (leafNode.isGoalState(iterations)) {
+				return leafNode.extractPlan();
+			}
+			
+			this.addToExplored(leafNode);
+			
+			for (Node n : leafNode.getExpandedNodes(agentNo)) { // The list of expanded nodes is shuffled randomly; see Node.java.
+				if (!this.isExplored(n) && !this.inFrontier(n)) {
+					this.addToFrontier(n);
+				}
+			}
+		}
+	}
+
 	public abstract Node getAndRemoveLeaf();
 
 	public abstract void addToFrontier(Node n);
@@ -64,12 +184,16 @@ public abstract class Strategy extends Thread {
 
 	public static class StrategyBFS extends Strategy {
 		private ArrayDeque<Node> frontier;
-		private HashSet<Node> frontierSet;
+		private StateSet frontierSet;
 
 		public StrategyBFS() {
-			super();
+			this(StateSet.Type.hashset);
+		}
+
+		public StrategyBFS(StateSet.Type stateSetType) {
+			super(stateSetType);
 			frontier = new ArrayDeque<Node>();
-			frontierSet = new HashSet<Node>();
+			frontierSet = StateSet.create(stateSetType);
 		}
 
 		@Override
@@ -103,6 +227,11 @@ public abstract class Strategy extends Thread {
 		@Override
 		public void refresh(Node n) { }
 
+		@Override
+		public long memoryFootprint() {
+			return super.memoryFootprint() + frontierSet.memoryFootprint();
+		}
+
 		@Override
 		public String toString() {
 			return "Breadth-first Search";
@@ -116,14 +245,111 @@ public abstract class Strategy extends Thread {
 		}
 	}
 
+	/**
+	 * Breadth-first search keeping its frontier as DeltaNodes instead of full nodes, and fingerprints instead of nodes
+	 * in the explored and frontier sets. A polled node is rebuilt from its parent, which is usually still in the cache
+	 * since siblings are polled one after another.
+	 */
+	public static class StrategyDeltaBFS extends Strategy {
+		private static final int CACHE_SIZE = 256;
+		
+		private ArrayDeque<DeltaNode> frontier;
+		private StateSet frontierSet;
+		private final DeltaNode.Cache cache = new DeltaNode.Cache(CACHE_SIZE);
+		
+		/**
+		 * Node returned by the last getAndRemoveLeaf and its delta node; the children added to the frontier afterwards
+		 * are stored relative to it.
+		 */
+		private Node leaf;
+		private DeltaNode leafDelta;
+
+		public StrategyDeltaBFS() {
+			super(StateSet.Type.fingerprint);
+			frontier = new ArrayDeque<DeltaNode>();
+			frontierSet = StateSet.create(StateSet.Type.fingerprint);
+		}
+
+		@Override
+		public Node getAndRemoveLeaf() {
+			DeltaNode d = frontier.pollFirst();
+			Node n = cache.materialize(d);
+			frontierSet.remove(n);
+			
+			leaf = n;
+			leafDelta = d;
+			return n;
+		}
+
+		@Override
+		public void addToFrontier(Node n) {
+			DeltaNode d;
+			if (n.parent != null && n.parent == leaf) {
+				if (leafDelta.hash != leaf.zobristHash()) {
+					// The leaf has been changed in place (relaxed) after it was polled, so its children cannot be
+					// replayed from its parent anymore
+					leafDelta.pin(leaf);
+				}
+				d = DeltaNode.child(leafDelta, n);
+			} else {
+				d = DeltaNode.root(n);
+			}
+			
+			frontier.addLast(d);
+			frontierSet.add(n);
+		}
+
+		@Override
+		public int countFrontier() {
+			return frontier.size();
+		}
+
+		@Override
+		public boolean frontierIsEmpty() {
+			return frontier.isEmpty();
+		}
+
+		@Override
+		public boolean inFrontier(Node n) {
+			return frontierSet.contains(n);
+		}
+		
+		@Override
+		public void refresh(Node n) { }
+
+		@Override
+		public long memoryFootprint() {
+			return super.memoryFootprint() + frontierSet.memoryFootprint() + (long) frontier.size() * DeltaNode.BYTES;
+		}
+
+		@Override
+		public String toString() {
+			return "Breadth-first Search on delta nodes";
+		}
+		
+		@Override
+		public void clearFrontier() {
+			frontierSet.clear();
+			frontier.clear();
+			super.explored.clear();
+			cache.clear();
+			leaf = null;
+			leafDelta = null;
+		}
+	}
+
 	public static class StrategyDFS extends Strategy {
         private ArrayDeque<Node> frontier;
-        private HashSet<Node> frontierSet;
+        private StateSet frontierSet;
         
 		public StrategyDFS() {
-			super();
+			this(StateSet.Type.hashset);
+		}
+
+		public StrategyDFS(StateSet.Type stateSetType) {
+			super(stateSetType);
             frontier = new ArrayDeque<Node>();
-            frontierSet = new HashSet<Node>();
+            frontierSet = StateSet.create(stateSetType);
 		}
 
 		@Override
@@ -157,6 +383,11 @@ public abstract class Strategy extends Thread {
 		@Override
 		public void refresh(Node n) { }
 		
+		@Override
+		public long memoryFootprint() {
+			return super.memoryFootprint() + frontierSet.memoryFootprint();
+		}
+		
 		@Override
         public String toString() {
 			return "Depth-first Search";
@@ -174,16 +405,38 @@ public abstract class Strategy extends Thread {
 	public static class StrategyBestFirst extends Strategy {
 		private Heuristic heuristic;
 		
-		private PriorityQueue<Node> frontier;
-        private HashSet<Node> frontierSet;
+		private Queue<Node> frontier;
+        private StateSet frontierSet;
+        
+        /**
+         * Tie-breaking of the bucket queue frontier or null if a PriorityQueue should be used.
+         */
+        private BucketQueue.TieBreaking tieBreaking;
 
 		public StrategyBestFirst(Heuristic h) {
-			super();
+			this(h, StateSet.Type.hashset);
+		}
+
+		public StrategyBestFirst(Heuristic h, StateSet.Type stateSetType) {
+			this(h, stateSetType, null);
+		}
+
+		public StrategyBestFirst(Heuristic h, StateSet.Type stateSetType, BucketQueue.TieBreaking tieBreaking) {
+			super(stateSetType);
 			
 			heuristic = h;
+			this.tieBreaking = tieBreaking;
 			
-			frontier = new PriorityQueue<Node>(heuristic);
-            frontierSet = new HashSet<Node>();
+			frontier = newFrontier();
+            frontierSet = StateSet.create(stateSetType);
+		}
+		
+		private Queue<Node> newFrontier() {
+			if (tieBreaking != null)
+				// All f values are integers, so the nodes can be kept in buckets by f
+				return new BucketQueue(tieBreaking);
+			
+			return new PriorityQueue<Node>(heuristic);
 		}
 
 		@Override
@@ -197,6 +450,8 @@ public abstract class Strategy extends Thread {
 		
 		@Override
 		public void addToFrontier(Node n) {
+			// h is evaluated once here; the queue then only compares the cached f values
+			heuristic.evaluate(n);
 			frontier.add(n);
             frontierSet.add(n);
 		}
@@ -218,15 +473,30 @@ public abstract class Strategy extends Thread {
 		
 		@Override
 		public void refresh(Node n) {
-			frontier = new PriorityQueue<Node>(heuristic);
-			frontierSet = new HashSet<Node>();
-			super.explored = new HashSet<Node>();
+			frontier = newFrontier();
+			frontierSet = StateSet.create(stateSetType);
+			super.explored = StateSet.create(stateSetType);
 			
 			//addToFrontier(n);
 		}
 
+		@Override
+		public long memoryFootprint() {
+			return super.memoryFootprint() + frontierSet.memoryFootprint();
+		}
+
+		@Override
+		public String searchStatus() {
+			long expanded = Math.max(1, this.countExpanded());
+			return String.format("%s, #Evaluations: %,d (%.2f per expansion), #Comparisons: %,d (%.2f evaluations per expansion without caching)",
+					super.searchStatus(), heuristic.evaluations.get(), (double) heuristic.evaluations.get() / expanded,
+					heuristic.comparisons.get(), 2.0 * heuristic.comparisons.get() / expanded);
+		}
+
 		@Override
 		public String toString() {
+			if (tieBreaking != null)
+				return "Best-first Search using " + this.heuristic.toString() + " and a bucket queue (" + tieBreaking + ")";
 			return "Best-first Search using " + this.heuristic.toString();
 		}
 		
@@ -237,4 +507,380 @@ public abstract class Strategy extends Thread {
 			super.explored.clear();
 		}
 	}
+
+	/**
+	 * Hash-distributed best-first search (HDA*). Every state is owned by one worker thread chosen by its Zobrist hash;
+	 * a worker keeps the open and closed lists of the states it owns and sends every successor it generates to the
+	 * owner through the owner's lock-free inbox. With an A* heuristic the search goes on after the first goal until no
+	 * open node can beat the best goal found (so the plan is as good as the one of sequential A*); otherwise it stops
+	 * at the first goal.
+	 *
+	 * The search runs its own loop on the workers (see search) rather than taking leaves one by one.
+	 */
+	public static class StrategyHDA extends Strategy {
+		private final Heuristic heuristic;
+		private final int threads;
+		private final boolean optimal;
+		
+		/**
+		 * Nodes added with addToFrontier; the search starts from them.
+		 */
+		private final ArrayList<Node> roots = new ArrayList<Node>();
+		
+		private ExecutorService pool;
+		
+		/**
+		 * Statistics of the last search.
+		 */
+		private long lastExpanded = 0;
+		private int lastClosed = 0;
+		private int lastOpen = 0;
+		private long lastMessages = 0;
+		
+		public StrategyHDA(Heuristic h, int threads) {
+			super(StateSet.Type.hashset);
+			this.heuristic = h;
+			this.threads = Math.max(1, threads);
+			this.optimal = h instanceof Heuristic.AStar;
+		}
+		
+		/**
+		 * Searches from the nodes in the frontier on all workers and returns the plan, or null if there is none or the
+		 * search has been cancelled.
+		 */
+		@Override
+		public Plan search(int agentNo) {
+			Node[] origins;
+			synchronized (this) {
+				origins = roots.toArray(new Node[roots.size()]);
+				roots.clear();
+			}
+			
+			Search search = new Search(agentNo);
+			
+			// The goal test records the satisfied HLA in pastActions; the searched copies get their own list so that
+			// goals found concurrently do not touch the list of the agent
+			Node[] copies = new Node[origins.length];
+			for (int i = 0; i < origins.length; i++) {
+				copies[i] = origins[i].copyOfNode();
+				copies[i].plannedActions = origins[i].plannedActions;
+				copies[i].curAction = origins[i].curAction;
+				copies[i].pastActions = Collections.synchronizedList(new ArrayList<HighLevelAction>());
+				copies[i].strategy = this;
+				heuristic.evaluate(copies[i]);
+				search.workers[search.ownerOf(copies[i])].receive(copies[i]);
+			}
+			
+			List<Future<Void>> runs = new ArrayList<Future<Void>>(threads);
+			for (Worker worker : search.workers) {
+				runs.add(pool().submit(worker));
+			}
+			try {
+				for (Future<Void> run : runs) {
+					run.get();
+				}
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Error)
+					throw (Error) e.getCause();
+				throw new RuntimeException(e.getCause());
+			} catch (InterruptedException e) {
+				search.done = true;
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			
+			lastExpanded = search.expanded.get();
+			lastMessages = search.sent.get();
+			lastClosed = 0;
+			lastOpen = 0;
+			for (Worker worker : search.workers) {
+				lastClosed += worker.bestG.size();
+				lastOpen += worker.open.size();
+			}
+			
+			Node result = search.result;
+			if (result == null || isCancelled()) {
+				return null;
+			}
+			
+			if (search.reachedGoal) {
+				Node root = result;
+				while (!root.isInitialState()) {
+					root = root.parent;
+				}
+				for (int i = 0; i < copies.length; i++) {
+					if (copies[i] == root) {
+						origins[i].pastActions.add(origins[i].curAction);
+					}
+				}
+			}
+			
+			return result.extractPlan();
+		}
+		
+		private ExecutorService pool() {
+			if (pool == null) {
+				pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+					private int count = 0;
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "hda-" + count++);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			return pool;
+		}
+		
+		/**
+		 * State shared by the workers of one search.
+		 */
+		private class Search {
+			final int agentNo;
+			final Worker[] workers;
+			
+			/**
+			 * Number of nodes sent to another worker and number of nodes taken out of an inbox; the search can only
+			 * end when they are equal.
+			 */
+			final AtomicLong sent = new AtomicLong();
+			final AtomicLong received = new AtomicLong();
+			
+			final AtomicLong expanded = new AtomicLong();
+			
+			volatile boolean done = false;
+			
+			/**
+			 * Best goal found so far (with an A* heuristic) or the goal that ended the search.
+			 */
+			volatile Node result = null;
+			volatile boolean reachedGoal = false;
+			
+			Search(int agentNo) {
+				this.agentNo = agentNo;
+				this.workers = new Worker[threads];
+				for (int i = 0; i < threads; i++) {
+					workers[i] = new Worker(this, i);
+				}
+			}
+			
+			int ownerOf(Node n) {
+				long hash = n.zobristHash() * 0x9E3779B97F4A7C15L;
+				return (int) ((hash >>> 32) % threads);
+			}
+			
+			synchronized void offerGoal(Node n) {
+				if (!reachedGoal || n.f < result.f) {
+					result = n;
+					reachedGoal = true;
+				}
+				if (!optimal) {
+					done = true;
+				}
+			}
+			
+			/**
+			 * Ends the search with given node as if it were a goal, unless a real goal has already been found (see the
+			 * iteration limit in Node.isGoalState).
+			 */
+			synchronized void cutOff(Node n) {
+				if (!reachedGoal) {
+					result = n;
+				}
+				done = true;
+			}
+			
+			/**
+			 * Open nodes with f not below the one of the best goal cannot lead to a better plan.
+			 */
+			boolean prunable(Node n) {
+				Node goal = result;
+				return optimal && reachedGoal && goal != null && n.f >= goal.f;
+			}
+			
+			/**
+			 * True if every worker has run out of nodes and no node is on its way to a worker. The sent counter is read
+			 * before and after looking at the workers: a worker can only get new nodes by a message, so if nothing has
+			 * been sent in the meantime, the idle workers seen have stayed idle.
+			 */
+			boolean quiescent() {
+				long before = sent.get();
+				if (received.get() != before)
+					return false;
+				for (Worker worker : workers) {
+					if (!worker.idle)
+						return false;
+				}
+				return sent.get() == before;
+			}
+		}
+		
+		private class Worker implements Callable<Void> {
+			final Search search;
+			final int id;
+			
+			final ConcurrentLinkedQueue<Node> inbox = new ConcurrentLinkedQueue<Node>();
+			final PriorityQueue<Node> open = new PriorityQueue<Node>(new Comparator<Node>() {
+				@Override
+				public int compare(Node n1, Node n2) {
+					return Integer.compare(n1.f, n2.f);
+				}
+			});
+			
+			/**
+			 * Lowest g with which every owned state has been reached; a state reached again with lower g is reopened,
+			 * since nodes from other workers may arrive in any order.
+			 */
+			final HashMap<Node, Integer> bestG = new HashMap<Node, Integer>();
+			
+			volatile boolean idle = false;
+			
+			Worker(Search search, int id) {
+				this.search = search;
+				this.id = id;
+			}
+			
+			void receive(Node n) {
+				Integer g = bestG.get(n);
+				if (g == null || n.g() < g) {
+					bestG.put(n, n.g());
+					open.add(n);
+				}
+			}
+			
+			@Override
+			public Void call() {
+				try {
+					run();
+				} finally {
+					// Stop the other workers if this one fails
+					search.done = true;
+				}
+				return null;
+			}
+			
+			private void run() {
+				while (!search.done) {
+					if (isCancelled()) {
+						search.done = true;
+						return;
+					}
+					
+					Node n;
+					while ((n = inbox.poll()) != null) {
+						idle = false;
+						receive(n);
+						search.received.incrementAndGet();
+					}
+					
+					Node leaf = open.poll();
+					if (leaf != null && search.prunable(leaf)) {
+						// Every other open node has f at least as high
+						open.clear();
+						leaf = null;
+					}
+					
+					if (leaf == null) {
+						idle = true;
+						if (search.quiescent()) {
+							search.done = true;
+						} else {
+							Thread.yield();
+						}
+						continue;
+					}
+					
+					if (leaf.g() > bestG.get(leaf)) {
+						// Reopened with lower g after this node had been queued
+						continue;
+					}
+					
+					// Every worker gets the expansion budget of a sequential search
+					if (search.expanded.incrementAndGet() >= (long) Node.ITERATION_LIMIT * threads) {
+						search.cutOff(leaf);
+						return;
+					}
+					
+					if (leaf.isGoalState(0)) {
+						search.offerGoal(leaf);
+						continue;
+					}
+					
+					for (Node child : leaf.getExpandedNodes(search.agentNo)) {
+						heuristic.evaluate(child);
+						if (search.prunable(child))
+							continue;
+						
+						int owner = search.ownerOf(child);
+						if (owner == id) {
+							receive(child);
+						} else {
+							search.sent.incrementAndGet();
+							search.workers[owner].inbox.add(child);
+						}
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Removes one of the nodes the next search would start from.
+		 */
+		@Override
+		public synchronized Node getAndRemoveLeaf() {
+			return roots.remove(roots.size() - 1);
+		}
+		
+		@Override
+		public synchronized void addToFrontier(Node n) {
+			roots.add(n);
+		}
+		
+		@Override
+		public synchronized boolean inFrontier(Node n) {
+			return roots.contains(n);
+		}
+		
+		@Override
+		public synchronized int countFrontier() {
+			return roots.size() + lastOpen;
+		}
+		
+		@Override
+		public int countExplored() {
+			return lastClosed;
+		}
+		
+		@Override
+		public long countExpanded() {
+			return lastExpanded;
+		}
+		
+		@Override
+		public synchronized boolean frontierIsEmpty() {
+			return roots.isEmpty();
+		}
+		
+		@Override
+		public void refresh(Node n) { }
+		
+		@Override
+		public String searchStatus() {
+			return String.format("%s, #Expanded: %,d, #Messages: %,d, Threads: %d", super.searchStatus(), lastExpanded, lastMessages, threads);
+		}
+		
+		@Override
+		public String toString() {
+			return "Hash-distributed Best-first Search using " + this.heuristic.toString() + " on " + threads + " threads";
+		}
+		
+		@Override
+		public synchronized void clearFrontier() {
+			// Also called by the goal test of a running search (see Node.isGoalState); the lists of the workers belong
+			// to that search and are dropped with it
+			roots.clear();
+		}
+	}
 }
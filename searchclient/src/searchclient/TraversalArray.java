@@ -1,18 +1,17 @@
 package searchclient;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 
 import searchclient.ElementWithColor.Color;
 
 public class TraversalArray {
 
 	
-	public static boolean[][] generateTraversalArray(Node n, int agentid, HashMap<Integer, LinkedList<Node>> agentPlans, int conflictingAgent) {
+	public static boolean[][] generateTraversalArray(Node n, int agentid, HashMap<Integer, Plan> agentPlans, int conflictingAgent) {
 		boolean[][] plan = new boolean[n.rows][n.cols];
 		
 	
-		LinkedList<Node> agentPlan = agentPlans.get(agentid);
+		Plan agentPlan = agentPlans.get(agentid);
 		
 	
 		
@@ -22,8 +21,8 @@ public class TraversalArray {
 	
 		
 		for(int step=0; step<agentPlan.size(); step++){ 
-			int newagentrow = agentPlan.get(step).agents[agentid][0]; 
-    		int newagentcol = agentPlan.get(step).agents[agentid][1]; 
+			int newagentrow = agentPlan.agentRow(step); 
+    		int newagentcol = agentPlan.agentCol(step); 
     		plan[newagentrow][newagentcol] = true ;
 		}
 		
@@ -43,18 +42,18 @@ public class TraversalArray {
 	}
 	
 	
-	public static boolean[][] generateTraversalArray2(Node n, HashMap<Integer, LinkedList<Node>> agentPlans) {
+	public static boolean[][] generateTraversalArray2(Node n, HashMap<Integer, Plan> agentPlans) {
 		boolean[][] plan = new boolean[n.rows][n.cols];
 		
 		
         for(int agentid=0 ; agentid<n.agentCount ; agentid++){
         	
 		
-        	LinkedList<Node> agentPlan = agentPlans.get(agentid);
+        	Plan agentPlan = agentPlans.get(agentid);
 
 		for(int step=0; step<agentPlan.size(); step++){ /// goes trgough agent plan and mark all cells that will be going to enter
-			int newagentrow = agentPlan.get(step).agents[agentid][0]; // agent row
-    		int newagentcol = agentPlan.get(step).agents[agentid][1]; // agent col
+			int newagentrow = agentPlan.agentRow(step); // agent row
+    		int newagentcol = agentPlan.agentCol(step); // agent col
     		plan[newagentrow][newagentcol] = true ;
 		}
 		
@@ -1,6 +1,5 @@
 package searchclient;
 
-import java.util.LinkedList;
 import java.util.Set;
 
 import searchclient.Command.Dir;
@@ -64,56 +63,23 @@ public class Utils {
 	}
 	
 	/**
-	 * Finds the position of the box in the given map.
+	 * Finds the position of the box in the given node.
 	 * @param box
-	 * @param boxIdsIds
-	 * @return Integer array with 2 elements, first being row, second column of the goal.
+	 * @param n
+	 * @return Integer array with 2 elements, first being row, second column of the box.
 	 */
-	public static int[] findBoxPosition(Box box, int[][] boxIds) {
-		int rows = boxIds.length;
-		for (int i = 0; i < rows; i++) {
-			int cols = boxIds[i].length;
-			for (int j = 0; j < cols; j++) {
-				if (box.id == boxIds[i][j])
-					return new int[] { i, j };
-			}
-		}
-		
-		return null;
+	public static int[] findBoxPosition(Box box, Node n) {
+		return n.boxPosition(box.id);
 	}
 	
 	/**
-	 * Finds the position of the goal in the given map.
+	 * Finds the position of the goal in the level of the given node.
 	 * @param goal
-	 * @param goalIds
+	 * @param n
 	 * @return Integer array with 2 elements, first being row, second column of the goal.
 	 */
-	public static int[] findGoalPosition(Goal goal, int[][] goalIds) {
-		int rows = goalIds.length;
-		for (int i = 0; i < rows; i++) {
-			int cols = goalIds[i].length;
-			for (int j = 0; j < cols; j++) {
-				if (goal.id == goalIds[i][j])
-					return new int[] { i, j };
-			}
-		}
-		
-		return null;
-	}
-	
-	/**
-	 * Finds a goal object at given position.
-	 * @param goals
-	 * @param goalIds
-	 * @param p Position, which will be checked.
-	 * @return
-	 */
-	public static Goal findGoal(Set<Goal> goals, int[][] goalIds, int[] p) {
-		for (Goal g : goals)
-			if (g.id == goalIds[p[0]][p[1]])
-				return g;
-		
-		return null;
+	public static int[] findGoalPosition(Goal goal, Node n) {
+		return n.goalPosition(goal.id);
 	}
 	
 	/**
@@ -138,19 +104,19 @@ public class Utils {
 	 * @return
 	 */
 	public static boolean cellIsFree(Node n, int row, int col) {
-		return !n.walls[row][col] && n.boxes[row][col] == 0 && !n.agentAt(row,col) ;
+		return !n.walls[row][col] && !n.boxAt(row, col) && !n.agentAt(row,col) ;
 	}
 	
 	/**
 	 * Prints the list of actions for an agent
 	 * @param list
 	 */
-	public static void printListOfActions(LinkedList<Node> list) {
+	public static void printListOfActions(Plan list) {
 		int listLength = list.size();
 		
-		System.err.print("List of actions for agent " + list.get(0).agentNo + ": [");
+		System.err.print("List of actions for agent " + list.agentNo + ": [");
 		for(int i = 0; i < listLength; i++) {
-			System.err.print(list.get(i).action.toString());
+			System.err.print(list.command(i).toString());
 			
 			if(i < listLength-1) {
 				System.err.print(", ");
@@ -159,10 +125,10 @@ public class Utils {
 		System.err.println("]");
 	}
 	
-	public static void printArray(char[][] boxes, int rows, int cols){
-		for(int row = 0; row < rows; row++) {
-			for(int col = 0; col < cols; col++) {
-				System.err.print(boxes[row][col]);
+	public static void printBoxes(Node n){
+		for(int row = 0; row < n.rows; row++) {
+			for(int col = 0; col < n.cols; col++) {
+				System.err.print(n.boxLetterAt(row, col));
 			}
 			System.err.println("");
 		}
@@ -25,6 +25,11 @@ public class DeadEndCorridorSolverV2 {
 	private Node node;
 	private Set<Goal> goals;
 	private Set<Goal> resolvedOnce;
+	
+	/**
+	 * Goals indexed by their IDs (null for unused IDs).
+	 */
+	private Goal[] goalsById;
 
 	public DeadEndCorridorSolverV2(Set<Goal> goals, Node n) {
 		frontier = new ArrayList<Goal>();
@@ -34,6 +39,13 @@ public class DeadEndCorridorSolverV2 {
 		resolvedOnce = new HashSet<Goal>();
 		node = n;
 		this.goals = goals;
+		
+		int maxId = 0;
+		for (Goal g : goals)
+			maxId = Math.max(maxId, g.id);
+		goalsById = new Goal[maxId + 1];
+		for (Goal g : goals)
+			goalsById[g.id] = g;
 	}
 	
 	public List<Goal> orderGoals() {
@@ -68,7 +80,7 @@ public class DeadEndCorridorSolverV2 {
 			numberedGoals.add(g);
 			g.numberOfDependencies = 0;
 			
-			goalPositions.put(g.id, Utils.findGoalPosition(g, node.goalIds));
+			goalPositions.put(g.id, Utils.findGoalPosition(g, node));
 			
 			for (j = 0; j < goals.size(); j++)
 				dependancyMatrix[i][j] = 0;
@@ -110,7 +122,7 @@ public class DeadEndCorridorSolverV2 {
 		Collections.reverse(numberedGoals);
 		
 		for (i = 0; i < dependancyMatrix.length; i++) {
-			calculateNumberOfDependencies(Utils.findGoal(goals, i + 1));
+			calculateNumberOfDependencies(goalWithId(i + 1));
 		}
 	}
 	
@@ -123,7 +135,7 @@ public class DeadEndCorridorSolverV2 {
 				if (!resolvedOnce.contains(g)) {
 					g.numberOfDependencies++;
 				
-					Goal dependant = Utils.findGoal(goals, i + 1);
+					Goal dependant = goalWithId(i + 1);
 
 					g.numberOfDependencies += calculateNumberOfDependencies(dependant);
 					
@@ -135,13 +147,22 @@ public class DeadEndCorridorSolverV2 {
 		return g.numberOfDependencies;
 	}
 	
+	/**
+	 * Finds the goal with given ID.
+	 * @param id
+	 * @return The goal or null if there is none with this ID.
+	 */
+	private Goal goalWithId(int id) {
+		return id > 0 && id < goalsById.length ? goalsById[id] : null;
+	}
+	
 	private void findDependencies(int[] i, Dir d, Goal previousGoal) {
 		int wallCount = Utils.neighbouringWallsCount(i[0], i[1], node.walls);
 		
 		if (wallCount == 2 || wallCount == 3) {
 			int[] neighbor = Utils.neighborOf(i, d);
 			
-			Goal goalAtI = Utils.findGoal(goals, node.goalIds, i);
+			Goal goalAtI = goalWithId(node.goalIds[i[0]][i[1]]);
 			
 			if (goalAtI != null) {
 				frontier.remove(goalAtI);
@@ -24,7 +24,7 @@ public class PositionPenalizer {
 	
 	public void solve() {
 		for (Goal goal : goals) {
-			int[] goalPos = Utils.findGoalPosition(goal, node.goalIds);
+			int[] goalPos = Utils.findGoalPosition(goal, node);
 			
 			Set<int[]> neighbors = new HashSet<int[]>();
 			